@@ -1,11 +1,20 @@
 import cluster.ClusterBuilder;
 import cluster.ClusterToGraphConverter;
-import gnu.trove.map.TObjectIntMap;
+import pattern.AlignmentOptions;
+import pattern.BitParallelAligner;
+import pattern.Hirschberg;
+import pattern.PairAligner;
 import pattern.Pattern;
 import pattern.PatternRanker;
+import pattern.PatternStore;
+import pattern.PatternTable;
 import pattern.SequenceAlignment;
 import util.FileIO;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 
 public class Main {
@@ -17,15 +26,24 @@ public class Main {
         else if (args[0].equals("-graph")) {
             ClusterToGraphConverter.main(args);
         }
+        else if (args[0].equals("-convert")) {
+            PatternStore.main(args);
+        }
         else {
             String datafile = null;
             String patternfile = null;
             String clusterfile = null;
             boolean align = false;
+            boolean merge = false;
             boolean rank = false;
             boolean nocomb = false;
             boolean cluster = false;
             boolean clean = false;
+            AlignmentOptions options = new AlignmentOptions();
+            boolean checkpoint = false;
+            boolean seeded = false;
+            int limit = 0;
+            boolean binary = false;
             for (int i = 0; i < args.length; i++) {
                 switch (args[i]) {
                     case "-mode":
@@ -35,6 +53,9 @@ public class Main {
                                 case "align":
                                     align = true;
                                     break;
+                                case "merge":
+                                    merge = true;
+                                    break;
                                 case "rank":
                                     rank = true;
                                     break;
@@ -76,11 +97,68 @@ public class Main {
                         datafile = args[++i];
                         break;
                     case "-patterns":
-                        if (patternfile == null && patternfile == null && !align && (rank || nocomb || cluster))
+                        if (patternfile == null && patternfile == null && !align && !merge && (rank || nocomb || cluster))
                             patternfile = args[++i];
                         else
                             help();
                         break;
+                    case "-threads":
+                        options.setThreads(Integer.parseInt(args[++i]));
+                        break;
+                    case "-counters":
+                        options.setCounters(Integer.parseInt(args[++i]));
+                        break;
+                    case "-spill":
+                        options.setSpill(Integer.parseInt(args[++i]));
+                        break;
+                    case "-sample":
+                        options.setSample(Double.parseDouble(args[++i]));
+                        break;
+                    case "-seed":
+                        options.setSeed(Long.parseLong(args[++i]));
+                        seeded = true;
+                        break;
+                    case "-aligner":
+                        switch (args[++i]) {
+                            case "bits":
+                                options.setAligner(BitParallelAligner::new);
+                                break;
+                            case "dp":
+                                options.setAligner(PairAligner::new);
+                                break;
+                            case "hirschberg":
+                                options.setAligner(Hirschberg::new);
+                                break;
+                            default:
+                                help();
+                        }
+                        break;
+                    case "-state":
+                        options.setState(args[++i]);
+                        break;
+                    case "-limit":
+                        limit = Integer.parseInt(args[++i]);
+                        break;
+                    case "-binary":
+                        binary = true;
+                        break;
+                    case "-pos":
+                        options.setPOSPairs(Arrays.asList(args[++i].split(",")));
+                        break;
+                    case "-shard":
+                        String[] shard = args[++i].split("/");
+                        if (shard.length != 2)
+                            help();
+                        options.setShard(Integer.parseInt(shard[0]) - 1, Integer.parseInt(shard[1]));
+                        break;
+                    case "-checkpoint":
+                        checkpoint = true;
+                        options.setCheckpointInterval(Integer.parseInt(args[++i]) * 60);
+                        break;
+                    case "-resume":
+                        checkpoint = true;
+                        options.setResume(true);
+                        break;
                     case "-clusters":
                         if (clusterfile == null && clusterfile == null && clean && !cluster)
                             clusterfile = args[++i];
@@ -94,32 +172,60 @@ public class Main {
 
             if (datafile == null
                     || (patternfile != null && clusterfile != null)
-                    || (patternfile == null && !align && (rank || nocomb || cluster))
-                    || (clusterfile == null && clean && !cluster))
+                    || (patternfile == null && !align && !merge && (rank || nocomb || cluster))
+                    || (clusterfile == null && clean && !cluster)
+                    || (align && merge)
+                    || limit < 0 || ((limit > 0 || binary) && !rank)
+                    // a shard only yields partial counts, and all shards must shuffle the same way
+                    || (options.getShards() > 1 && (!align || !seeded || rank || nocomb || cluster || clean))
+                    // POS pairs are aligned as units of their own, without a state or checkpoints
+                    || (options.getPOSPairs() != null && (options.getState() != null || checkpoint)))
                 help();
 
+            String shardfile = datafile + ".part" + (options.getShard() + 1);
+            if (checkpoint)
+                options.setCheckpoint(((options.getShards() > 1) ? shardfile : datafile) + ".ckpt");
+
             try {
                 Set<String> data = FileIO.readData(datafile);
-                TObjectIntMap<String> freqs = null;
                 Set<Pattern> patterns = null;
                 ClusterBuilder clus = null;
 
                 if (align) {
                     System.err.println("Extracting patterns...");
-                    freqs = SequenceAlignment.getPatterns(data);
-                    FileIO.writePatterns(freqs, datafile + ".freq");
+                    if (options.getShards() > 1) {
+                        // the partial counts of the shard are merged later
+                        SequenceAlignment.writePatterns(data, options, shardfile);
+                    }
+                    else if (options.getSpill() > 0) {
+                        // the patterns may not fit into memory, so rank reads them from the file
+                        SequenceAlignment.writePatterns(data, options, datafile + ".freq");
+                    }
+                    else {
+                        PatternTable freqs = SequenceAlignment.getPatterns(data, options);
+                        FileIO.writePatterns(freqs, options.getSample(), datafile + ".freq");
+                    }
+                }
+                if (merge) {
+                    System.err.println("Merging shards...");
+                    List<String> shardfiles = new ArrayList<>();
+                    for (int k = 1; new File(datafile + ".part" + k).exists(); k++)
+                        shardfiles.add(datafile + ".part" + k);
+                    SequenceAlignment.mergePatterns(shardfiles, options, datafile + ".freq");
                 }
                 if (rank) {
                     System.err.println("Ranking patterns...");
-                    if (freqs == null)
-                        freqs = FileIO.readPatterns(patternfile);
-                    patterns = Pattern.label(PatternRanker.rankPatterns(freqs));
-                    FileIO.writePatterns(patterns, datafile + ".ranks");
+                    // the patterns may not fit into memory, so they are ranked while reading the file,
+                    // which also labels them in the order of their weighted frequencies
+                    PatternRanker.rankPatterns((align || merge) ? datafile + ".freq" : patternfile,
+                            datafile + ".ranks", limit, options.getThreads());
+                    if (binary)
+                        FileIO.writePatternStore(datafile + ".ranks", datafile + ".ranks.bin");
                 }
                 if (nocomb) {
                     System.err.println("Removing combinations... (This mode is currently disabled)");
                     if (patterns == null)
-                        patterns = FileIO.readPatternsWithLabels(patternfile);
+                        patterns = FileIO.readPatternsWithLabels((rank) ? datafile + ((binary) ? ".ranks.bin" : ".ranks") : patternfile);
 //                    List<fst.FST> fsts = PatternToFST.createMultipleFromPatterns(patterns);
 //                    PatternCombinator.removeCombinations(fsts);
 //                    PatternCombinator.printFSTs(fsts, datafile + ".clranks");
@@ -127,8 +233,8 @@ public class Main {
                 if (cluster) {
                     System.err.println("Clustering...");
                     if (patterns == null)
-                        patterns = FileIO.readPatternsWithLabels(patternfile);
-                    clus = new ClusterBuilder(patterns, data);
+                        patterns = FileIO.readPatternsWithLabels((rank) ? datafile + ((binary) ? ".ranks.bin" : ".ranks") : patternfile);
+                    clus = new ClusterBuilder(patterns, data, options.getAligner());
                     clus.printClusters(datafile + ".clus");
                     clus.printDerivations(datafile + ".deriv");
                 }
@@ -151,6 +257,7 @@ public class Main {
     private static void help() {
         System.err.println("Usage: java -jar colex.jar -mode <mode(s)> -data <datafile> <additional files if required>");
         System.err.println("   or: java -jar colex.jar -graph -in <infile> -out <outfile-prefix> -id|-minsize|-top <value>");
+        System.err.println("   or: java -jar colex.jar -convert -in <infile> -out <outfile>");
 
         System.err.println();
         System.err.println("===REGULAR PROGRAM===");
@@ -158,6 +265,8 @@ public class Main {
         System.err.println("-mode: Which parts of the program to run. "
                 + "Possible values (multiples are possible, divided by whitespace):");
         System.err.println("\talign -> retrieves patterns with frequencies");
+        System.err.println("\tmerge -> merges the files <data>.part1, <data>.part2, ... "
+                + "of align runs with -shard into the patterns with frequencies");
         System.err.println("\trank -> weighs patterns, "
                 + "requires additional -patterns <output of align> if run without align");
         System.err.println("\tpatterns -> combination of align and rank");
@@ -171,6 +280,31 @@ public class Main {
                 + "requires additional -patterns <output of rank> if run without patterns");
         System.err.println("\tall -> combination of align, rank, cluster and clean");
         System.err.println("\tallcl -> combination of align, rank, nocomb, cluster and clean");
+        System.err.println("-threads: Number of threads to use for align and rank (default: 1)");
+        System.err.println("-counters: Number of patterns counted at the same time by align, "
+                + "frequencies are approximate if set (default: 0 = count all patterns exactly)");
+        System.err.println("-spill: Number of patterns held in memory by align before they are written to "
+                + "temporary files, counts stay exact (default: 0 = keep all patterns in memory)");
+        System.err.println("-sample: Portion of the word pairs aligned by align, frequencies are scaled up "
+                + "and written with a 95% confidence interval (default: 1 = align all pairs)");
+        System.err.println("-seed: Seed for shuffling and sampling in align (default: random)");
+        System.err.println("-checkpoint: Minutes between two checkpoints of align, which are written "
+                + "to <data>.ckpt (default: no checkpoints)");
+        System.err.println("-resume: Resume align from <data>.ckpt and continue writing checkpoints "
+                + "(every 10 minutes unless -checkpoint is given)");
+        System.err.println("-aligner: How align and cluster align word pairs, bits = 64 cells at once, "
+                + "dp = banded table, hirschberg = linear memory for long entries, same patterns (default: bits)");
+        System.err.println("-state: File with the words and exact frequencies of previous align runs, "
+                + "only pairs with new words are aligned and the file is updated (default: no state)");
+        System.err.println("-shard: Slice k/N of the word pairs aligned by align, whose partial frequencies are "
+                + "written to <data>.partk, requires -seed and align as only mode (default: 1/1 = all pairs)");
+        System.err.println("-limit: Highest number of patterns kept by rank, those with the highest weighted "
+                + "frequencies (default: 0 = keep all)");
+        System.err.println("-binary: Makes rank also write <data>.ranks.bin, a binary pattern store that is mapped "
+                + "instead of parsed when it is given to cluster with -patterns");
+        System.err.println("-pos: Comma-separated POS pairs like V/N,A/N,V/V whose patterns are counted by align, "
+                + "each pair of POS is aligned as a unit, with -shard whole units are dealt out to the shards "
+                + "(default: all pairs)");
 
         System.err.println();
         System.err.println("===GRAPH PROGRAM===");
@@ -179,6 +313,11 @@ public class Main {
         System.err.println("-minsize: Print all clusters with a minimum size of <value>");
         System.err.println("-top: Print top <value> clusters");
 
+        System.err.println();
+        System.err.println("===CONVERT PROGRAM===");
+
+        System.err.println("Converts a .freq or .ranks file into a binary pattern store, or a pattern store back into text");
+
         System.exit(0);
     }
 }
@@ -1,45 +1,80 @@
 package cluster;
 
+import fst.CompiledFST;
 import fst.FST;
 import gnu.trove.iterator.TObjectIntIterator;
 import gnu.trove.map.TObjectIntMap;
 import gnu.trove.map.hash.TObjectIntHashMap;
+import pattern.Aligner;
+import pattern.AlignmentOptions;
 import pattern.Pattern;
 import pattern.PatternToFST;
 import pattern.SequenceAlignment;
 import util.FileIO;
+import util.Lexicon;
 import util.StringUtils;
+import util.StripedCounterMap;
 
 import java.io.*;
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.function.Supplier;
 
 public class ClusterBuilder {
 
     private List<String> allTokens;
+    // the tokens encoded for the transducers
+    private Lexicon lexicon;
+    private short[][] words;
+    private int[] posIds;
     private List<Cluster> clusters;
     private Map<String, Cluster> derivTrees;
-    private Map<String, String> patterns;
+    private Map<String, Pattern> patterns;
     private Map<String, FST> fsts;
-    private FST singleFST;
-    private FST combFST;
+    private CompiledFST singleFST;
+    private CompiledFST combFST;
+    // the aligner of each thread
+    private ThreadLocal<Aligner> aligners;
 
     /**
      * Constructs a builder that takes every word in the list, searches for all other
      * words which this word can be transformed into by at least one of the transducers,
-     * and groups all those words in a cluster.
+     * and groups all those words in a cluster. Patterns between words that are not known
+     * yet are found with the default aligner of {@link AlignmentOptions}.
      * @param patterns a list with FSTs that represent all possible transformations
      * @param words a file with a list of words that are to be put into clusters
      */
     public ClusterBuilder(Set<Pattern> patterns, Collection<String> words) {
+        this(patterns, words, new AlignmentOptions().getAligner());
+    }
+
+    /**
+     * Constructs a builder that takes every word in the list, searches for all other
+     * words which this word can be transformed into by at least one of the transducers,
+     * and groups all those words in a cluster.
+     * @param patterns a list with FSTs that represent all possible transformations
+     * @param words a file with a list of words that are to be put into clusters
+     * @param aligner the factory for the aligner of each thread, which finds patterns between
+     *                words that are not known yet
+     */
+    public ClusterBuilder(Set<Pattern> patterns, Collection<String> words, Supplier<? extends Aligner> aligner) {
+        this.aligners = ThreadLocal.withInitial(aligner);
         this.allTokens = new ArrayList<>(words);
+        this.lexicon = new Lexicon();
+        this.words = new short[allTokens.size()][];
+        this.posIds = new int[allTokens.size()];
+        for (int i = 0; i < allTokens.size(); i++) {
+            this.words[i] = lexicon.encodeWord(allTokens.get(i));
+            this.posIds[i] = lexicon.encodePOS(allTokens.get(i));
+        }
         this.patterns = new HashMap<>();
         for (Pattern pattern : patterns)
-            this.patterns.put(pattern.getLabel(), pattern.getPattern());
+            this.patterns.put(pattern.getLabel(), pattern);
 
         this.fsts = PatternToFST.createMapFromPatterns(patterns);
-        this.singleFST = FST.disjunctAll(this.fsts.values());
-        this.singleFST.determinize();
+        FST singleFST = FST.disjunctAll(this.fsts.values());
+        singleFST.determinize();
+        this.singleFST = singleFST.compile(lexicon);
         this.combFST = null;
 
         cluster();
@@ -54,6 +89,7 @@ public class ClusterBuilder {
      * @param file the cluster file
      */
     public ClusterBuilder(String file) {
+        aligners = ThreadLocal.withInitial(new AlignmentOptions().getAligner());
         clusters = new ArrayList<>();
         derivTrees = new HashMap<>();
         try (BufferedReader read = new BufferedReader(new InputStreamReader(new FileInputStream(new File(file)), "UTF-8"))) {
@@ -134,6 +170,8 @@ public class ClusterBuilder {
     private List<Cluster.ClusterNode> getMatches(Cluster.ClusterNode node1, List<String> allTokens,
                                                  Set<String> done, Map<String, Cluster.ClusterNode> nodes) {
         String token1 = node1.getLabel();
+        short[] word1 = lexicon.encodeWord(token1);
+        int pos1 = lexicon.encodePOS(token1);
         List<Cluster.ClusterNode> matches = new ArrayList<>();
 
         // Go through all not yet processed words
@@ -142,9 +180,9 @@ public class ClusterBuilder {
             String token2 = allTokens.get(j);
             if (!token1.equals(token2)) {
                 // Check whether there is a pattern from token1 to token2
-                FST.Result rel = singleFST.transduce(token1, token2);
+                FST.Result rel = singleFST.transduce(word1, pos1, words[j], posIds[j]);
                 if (combFST != null && rel.isEmpty())
-                    rel = combFST.transduce(token1, token2);
+                    rel = combFST.transduce(word1, pos1, words[j], posIds[j]);
                 // Add token2 to cluster and stack if it is related
                 if (!rel.isEmpty()) {
                     if (!nodes.containsKey(token2))
@@ -217,8 +255,9 @@ public class ClusterBuilder {
                 combine(iter.getNextNode(), iter.getRelation(), combFSTs);
             }
         }
-        this.combFST = FST.disjunctAll(combFSTs.values());
+        FST combFST = FST.disjunctAll(combFSTs.values());
         combFST.determinize();
+        this.combFST = combFST.compile(lexicon);
     }
 
     /**
@@ -270,22 +309,7 @@ public class ClusterBuilder {
         }System.out.println(stemRel.size());
 
         // get and count inter-stem patterns
-        TObjectIntMap<String> stemPatterns = new TObjectIntHashMap<>();
-        for (String stem1 : stemRel.keySet()) {//System.out.print(stem1);
-            for (String stem2 : stemRel.keySet()) {//System.out.print(" "+stem2);
-                if (Math.abs(stem1.length() - stem2.length()) <= 5
-                        && singleFST.transduce(stem1, stem2).isEmpty()
-                        && combFST.transduce(stem1, stem2).isEmpty()
-                        && Collections.disjoint(stemRel.get(stem1), stemRel.get(stem2))) {
-                    String pattern = SequenceAlignment.findPattern(stem1, stem2, 0.5);
-                    if (!pattern.isEmpty()) {
-                        int weight = stemRel.get(stem1).size() + stemRel.get(stem2).size();
-                        stemPatterns.adjustOrPutValue(pattern, weight, weight);
-                        stemPatterns.adjustOrPutValue(SequenceAlignment.findPattern(stem2, stem1, 0.5), weight, weight);
-                    }
-                }
-            }//System.out.println();
-        }
+        TObjectIntMap<String> stemPatterns = countStemPatterns(stemRel);
         // remove patterns that only occurred once
         for (TObjectIntIterator<String> iter = stemPatterns.iterator(); iter.hasNext(); ) {
             iter.advance();
@@ -298,16 +322,49 @@ public class ClusterBuilder {
         FileIO.writePatterns(stemPatterns, "stempatterns");
     }
 
+    /**
+     * Counts the patterns between all pairs of stems of similar length which are not related
+     * by a pattern or a combination yet and which have no relation to a token in common. The
+     * patterns are weighted by the number of relations of both stems. Every stem is paired
+     * with the others in parallel, with counts of its own.
+     * @param stemRel the stems with the relations they have to the tokens
+     * @return the patterns with their weighted counts
+     */
+    TObjectIntMap<String> countStemPatterns(Map<String, Set<String>> stemRel) {
+        StripedCounterMap<String> stemCounts = new StripedCounterMap<>();
+        stemRel.keySet().parallelStream().forEach(stem1 -> {
+            Aligner aligner = aligners.get();
+            TObjectIntMap<String> counts = new TObjectIntHashMap<>();
+            for (String stem2 : stemRel.keySet()) {
+                if (Math.abs(stem1.length() - stem2.length()) <= 5
+                        && singleFST.transduce(stem1, stem2).isEmpty()
+                        && combFST.transduce(stem1, stem2).isEmpty()
+                        && Collections.disjoint(stemRel.get(stem1), stemRel.get(stem2))) {
+                    String[] patterns = aligner.findPatterns(stem1, stem2, 0.5);
+                    if (patterns.length > 0) {
+                        int weight = stemRel.get(stem1).size() + stemRel.get(stem2).size();
+                        counts.adjustOrPutValue(patterns[0], weight, weight);
+                        counts.adjustOrPutValue(patterns[1], weight, weight);
+                    }
+                }
+            }
+            stemCounts.addAll(counts);
+        });
+        return stemCounts.toMap();
+    }
+
     /**
      * Finds all maximal cliques in the clusters, reduces the patterns in
-     * between the nodes and stores these patterns in a disjunct FST.
+     * between the nodes and stores these patterns in a disjunct FST. The clusters
+     * are reduced in parallel.
      * @return an FST with the found reduce patterns
      */
     public FST reduceCliques() {
         // map with new patterns
-        TObjectIntMap<String> newPatterns = new TObjectIntHashMap<>();
+        StripedCounterMap<String> newPatterns = new StripedCounterMap<>();
 
-        for (Cluster cluster : clusters) {
+        clusters.parallelStream().forEach(cluster -> {
+            Aligner aligner = aligners.get();
             for (List<Cluster.ClusterNode> clique : cluster.getCliques()) {
                 for (int i = 0; i < clique.size(); i++) {
                     for (int j = 0; j < clique.size(); j++) {
@@ -315,58 +372,67 @@ public class ClusterBuilder {
                             // get pattern between each pair of nodes in the clique
                             //System.out.print(clique.get(i).getLabel() + " & " + clique.get(j).getLabel() + " : ");
                             String relation = clique.get(i).getRelationTo(clique.get(j));
-                            String pattern = (patterns.containsKey(relation))
-                                    ? patterns.get(relation)
-                                    : SequenceAlignment.findPattern(clique.get(i).getLabel(), clique.get(j).getLabel());
+                            Pattern pattern = patterns.get(relation);
+                            if (pattern == null) {
+                                String found = SequenceAlignment.findPattern(clique.get(i).getLabel(), clique.get(j).getLabel(), aligner);
+                                if (found.isEmpty())
+                                    continue;
+                                pattern = new Pattern(found, 1, "");
+                            }
                             // reduce pattern
-                            pattern = getInputTape(pattern);
+                            String inputTape = getInputTape(pattern);
                             // only store non-identity patterns
-                            if (StringUtils.count(pattern, ' ') > 1)
-                                newPatterns.adjustOrPutValue(pattern, 1, 1);
+                            if (inputTape != null)
+                                newPatterns.add(inputTape, 1);
                         }
                     }
                 }
             }
-        }
+        });
+
+        // label the patterns in sorted order, since the order of the map depends on the threads
+        TObjectIntMap<String> counts = newPatterns.toMap();
+        String[] reduced = counts.keys(new String[counts.size()]);
+        Arrays.sort(reduced);
+        Set<Pattern> p = new HashSet<>();
+        for (int i = 0; i < reduced.length; i++)
+            p.add(new Pattern(reduced[i], counts.get(reduced[i]), "stem" + i));
 
         // store patterns in FST
-        Set<Pattern> p = Pattern.label(newPatterns, "stem");
         for (Pattern pattern : p)
-            patterns.put(pattern.getLabel(), pattern.getPattern());
+            patterns.put(pattern.getLabel(), pattern);
         List<FST> newFSTs = PatternToFST.createMultipleFromPatterns(p);
         return FST.disjunctAll(newFSTs);
     }
 
     /**
-     * Only retain the input side of a pattern.
-     * @param pattern teh pattern
-     * @return the reduced form of the pattern
+     * Only retain the input side of a pattern. Substitutions become deletions of
+     * their input symbol, insertions are dropped, and adjacent wildcards are merged.
+     * @param pattern the pattern
+     * @return the reduced form of the pattern, or null if it has less than two
+     * transitions, i.e. if it does not change the word
      */
-    private String getInputTape(String pattern) {
+    private String getInputTape(Pattern pattern) {
         StringBuilder newPattern = new StringBuilder();
+        int transitions = 0;
         boolean dot = false;
-        for (int i = 0; i < pattern.lastIndexOf('/'); i++) {
-            if (pattern.charAt(i) == '.') {
+        for (int t = 0; t < pattern.size(); t++) {
+            if (pattern.isAny(t)) {
                 if (!dot) {
                     newPattern.append("./. ");
+                    transitions++;
                     dot = true;
                 }
-                i += 3;
             }
-            else if (pattern.charAt(i) == '-') {
-                i += 3;
-            }
-            else {
-                newPattern.append(pattern.charAt(i));
-                if (pattern.charAt(i) == '/' && pattern.charAt(i - 1) != '.') {
-                    newPattern.append('-');
-                    i++;
-                }
+            else if (pattern.getInput(t) != Pattern.EMPTY) {
+                newPattern.append(pattern.getInput(t)).append('/').append(Pattern.EMPTY).append(' ');
+                transitions++;
                 dot = false;
             }
         }
-        //System.out.println(pattern + "\t" + newPattern.toString());
-        return newPattern.append("/"+FST.ANY_POS).toString();
+        if (transitions < 2)
+            return null;
+        return newPattern.append(pattern.getFromPOS()).append('/').append(FST.ANY_POS).toString();
     }
 
     /**
@@ -0,0 +1,217 @@
+package fst;
+
+import util.Lexicon;
+
+/**
+ * An immutable, compiled form of an {@link FST}, see {@link FST#compile(Lexicon)}. It
+ * transduces strings encoded with a lexicon and finds the same relations as
+ * {@link FST#transduce(String, String)}, but walks flat arrays instead of a graph of
+ * state objects.
+ * <p>
+ * The states are numbered in breadth-first order from the start state 0. The transitions
+ * of state s lie at offsets[s] to offsets[s+1]-1 of the arrays inCodes, outCodes and targets,
+ * sorted by input code, i.e. the wildcard transitions come first, followed by the insertions
+ * and the transitions of the symbols. Where these groups start is stored for every state, and
+ * the first transition of a symbol is found by a binary search without scanning backwards.
+ * Epsilon transitions, which a determinized FST does not have, lie at epsilonOffsets[s] to
+ * epsilonOffsets[s+1]-1 of epsilonTargets. The accepting entries of state s, each with an
+ * input and output POS id, a relation and a weight, lie at finalOffsets[s] to
+ * finalOffsets[s+1]-1 of parallel arrays, in the order of the accepting state.
+ * <p>
+ * A compiled FST is read-only, so many threads can use it at the same time.
+ */
+public class CompiledFST {
+
+    private final Lexicon lexicon;
+    private final int anyPOS;
+
+    // the transitions of all states
+    private final int[] offsets;
+    private final short[] inCodes;
+    private final short[] outCodes;
+    private final int[] targets;
+    // the first insertion and the first transition of a symbol of every state
+    private final int[] nullStarts;
+    private final int[] symbolStarts;
+    // the epsilon transitions of all states
+    private final int[] epsilonOffsets;
+    private final int[] epsilonTargets;
+    // the accepting entries of all states
+    private final int[] finalOffsets;
+    private final int[] fromPOS;
+    private final int[] toPOS;
+    private final String[] relations;
+    private final int[] weights;
+
+    CompiledFST(Lexicon lexicon, int anyPOS, int[] offsets, short[] inCodes, short[] outCodes, int[] targets,
+                int[] epsilonOffsets, int[] epsilonTargets,
+                int[] finalOffsets, int[] fromPOS, int[] toPOS, String[] relations, int[] weights) {
+        this.lexicon = lexicon;
+        this.anyPOS = anyPOS;
+        this.offsets = offsets;
+        this.inCodes = inCodes;
+        this.outCodes = outCodes;
+        this.targets = targets;
+        this.epsilonOffsets = epsilonOffsets;
+        this.epsilonTargets = epsilonTargets;
+        this.finalOffsets = finalOffsets;
+        this.fromPOS = fromPOS;
+        this.toPOS = toPOS;
+        this.relations = relations;
+        this.weights = weights;
+
+        int states = offsets.length - 1;
+        nullStarts = new int[states];
+        symbolStarts = new int[states];
+        for (int s = 0; s < states; s++) {
+            nullStarts[s] = lowerBound(FST.NULL_CODE, offsets[s], offsets[s + 1]);
+            symbolStarts[s] = lowerBound((short) 0, nullStarts[s], offsets[s + 1]);
+        }
+    }
+
+    /**
+     * @return the number of states
+     */
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Checks whether this transducer may produce one string as output when given
+     * the other as input, like {@link FST#transduce(String, String)}, for words and POS
+     * encoded with the lexicon this transducer was compiled with.
+     * @param s1 the symbol codes of the input word
+     * @param pos1 the POS id of the input string
+     * @param s2 the symbol codes of the output word
+     * @param pos2 the POS id of the output string
+     * @return the relation with the highest weight, empty if there is none
+     */
+    public FST.Result transduce(short[] s1, int pos1, short[] s2, int pos2) {
+        FST.Result res = FST.Result.empty();
+        transduce(0, s1, s2, pos1, pos2, 0, 0, res);
+        return res;
+    }
+
+    /**
+     * Checks whether this transducer may produce one string as output when given the
+     * other as input, like {@link FST#transduce(String, String)}. The strings are encoded
+     * with the lexicon without adding to it, so that many threads can transduce strings
+     * at the same time. Symbols that the lexicon does not know get codes beyond its codes,
+     * which no transition has, and unknown POS get an id which no accepting entry has.
+     * @param s1 the input string of the form WORD:POS
+     * @param s2 the output string of the form WORD:POS
+     * @return the relation with the highest weight, empty if there is none
+     */
+    public FST.Result transduce(String s1, String s2) {
+        int split1 = s1.indexOf(':');
+        int split2 = s2.indexOf(':');
+        StringBuilder unknown = new StringBuilder();
+        short[] word1 = encode(s1, split1, unknown);
+        short[] word2 = encode(s2, split2, unknown);
+        return transduce(word1, lexicon.findPOS(s1.substring(split1 + 1)),
+                word2, lexicon.findPOS(s2.substring(split2 + 1)));
+    }
+
+    /**
+     * @param token a token
+     * @param split the position of the colon in the token
+     * @param unknown the symbols without a code found so far, which are numbered after the
+     *                codes of the lexicon
+     * @return the codes of the symbols of the word
+     */
+    private short[] encode(String token, int split, StringBuilder unknown) {
+        short[] word = new short[split];
+        for (int i = 0; i < split; i++) {
+            char symbol = token.charAt(i);
+            short code = lexicon.find(symbol);
+            if (code < 0) {
+                int x = unknown.indexOf(String.valueOf(symbol));
+                if (x < 0) {
+                    x = unknown.length();
+                    unknown.append(symbol);
+                }
+                if (lexicon.symbols() + x > Short.MAX_VALUE)
+                    throw new IllegalStateException("More than " + (Short.MAX_VALUE + 1) + " symbols");
+                code = (short) (lexicon.symbols() + x);
+            }
+            word[i] = code;
+        }
+        return word;
+    }
+
+    private void transduce(int state, short[] s1, short[] s2, int pos1, int pos2, int i1, int i2, FST.Result res) {
+        if (i1 == s1.length && i2 == s2.length) {
+            // get result if the POS of both strings match
+            if (finalOffsets[state] < finalOffsets[state + 1]) {
+                if (pos1 == anyPOS)
+                    updateResult(state, pos1, pos2, true, res);
+                else {
+                    updateResult(state, pos1, pos2, false, res);
+                    updateResult(state, anyPOS, pos2, false, res);
+                }
+            }
+        }
+        else {
+            short inCode = (i1 < s1.length) ? s1[i1] : FST.NULL_CODE;
+            short outCode = (i2 < s2.length) ? s2[i2] : FST.NULL_CODE;
+            int end = offsets[state + 1];
+
+            // insertion
+            if (outCode != FST.NULL_CODE) {
+                for (int x = nullStarts[state]; x < symbolStarts[state]; x++) {
+                    if (outCodes[x] == outCode)
+                        transduce(targets[x], s1, s2, pos1, pos2, i1, i2 + 1, res);
+                }
+            }
+
+            // substitution & deletion
+            if (inCode != FST.NULL_CODE) {
+                for (int x = lowerBound(inCode, symbolStarts[state], end); x < end && inCodes[x] == inCode; x++) {
+                    if (outCodes[x] == FST.NULL_CODE) //deletion
+                        transduce(targets[x], s1, s2, pos1, pos2, i1 + 1, i2, res);
+                    else if (outCodes[x] == outCode) //substitution
+                        transduce(targets[x], s1, s2, pos1, pos2, i1 + 1, i2 + 1, res);
+                }
+            }
+
+            // same char transition
+            if (inCode == outCode && inCode != FST.NULL_CODE) {
+                for (int x = offsets[state]; x < nullStarts[state]; x++)
+                    transduce(targets[x], s1, s2, pos1, pos2, i1 + 1, i2 + 1, res);
+            }
+        }
+
+        // epsilon transition
+        for (int e = epsilonOffsets[state]; e < epsilonOffsets[state + 1]; e++)
+            transduce(epsilonTargets[e], s1, s2, pos1, pos2, i1, i2, res);
+    }
+
+    /**
+     * Keeps the accepting entry of a state with the highest weight whose POS match.
+     * @param state the state
+     * @param pos1 the input POS an entry must have
+     * @param pos2 the POS of the output string
+     * @param anyInput whether entries with any input POS match
+     * @param res the result to update
+     */
+    private void updateResult(int state, int pos1, int pos2, boolean anyInput, FST.Result res) {
+        for (int x = finalOffsets[state]; x < finalOffsets[state + 1]; x++) {
+            if ((anyInput || fromPOS[x] == pos1) && (pos2 == toPOS[x] || pos2 == anyPOS))
+                res.offer(relations[x], weights[x]);
+        }
+    }
+
+    /**
+     * @return the first position from start to end whose input code is not lower than the code
+     */
+    private int lowerBound(short code, int start, int end) {
+        while (start < end) {
+            int mid = (start + end) >>> 1;
+            if (inCodes[mid] < code)
+                start = mid + 1;
+            else
+                end = mid;
+        }
+        return start;
+    }
+}
@@ -8,7 +8,8 @@ import gnu.trove.list.array.TCharArrayList;
 import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.TObjectIntMap;
 import gnu.trove.map.hash.TObjectIntHashMap;
-import util.StringUtils;
+import pattern.Pattern;
+import util.Lexicon;
 
 import java.util.*;
 
@@ -20,6 +21,9 @@ public class FST {
     public static final char NULL_CHAR = '0';
     // The string representing a variable POS
     public static final String ANY_POS = "*";
+    // The codes of the wildcard char and of epsilon in encoded transitions
+    static final short ANY_CODE = -2;
+    static final short NULL_CODE = -1;
 
     // The start state of the fst.FST
     protected FSTState start;
@@ -35,12 +39,16 @@ public class FST {
      * @param label the label of the pattern
      */
     public FST(String pattern, int weight, String label) {
-        String[] pairs = StringUtils.split(pattern, ' ');
-        String pos = pairs[pairs.length-1];
-        int split = pos.indexOf('/');
-        String fromPos = pos.substring(0, split);
-        String toPos = pos.substring(split+1);
-        this.start = FSTState.createState(pairs, 0, fromPos, toPos, label, weight);
+        this(new Pattern(pattern, weight, label));
+    }
+
+    /**
+     * Creates a transducer from the transitions of a parsed pattern, weighted with
+     * its frequency.
+     * @param pattern the pattern
+     */
+    public FST(Pattern pattern) {
+        this.start = FSTState.createState(pattern, 0);
     }
 
     public int size() {
@@ -70,6 +78,89 @@ public class FST {
         return res;
     }
 
+    /**
+     * Compiles this transducer into flat arrays, see {@link CompiledFST}, with the transitions
+     * and the POS of the accepting states encoded with the symbol codes and POS ids of a
+     * lexicon. Later changes to this transducer do not affect the compiled one.
+     * @param lexicon the lexicon with which the strings to transduce are encoded
+     * @return the compiled transducer
+     */
+    public CompiledFST compile(Lexicon lexicon) {
+        encode(lexicon);
+        // number the states in breadth-first order
+        List<FSTState> states = new ArrayList<>();
+        TObjectIntMap<FSTState> ids = new TObjectIntHashMap<>(16, 0.5f, -1);
+        states.add(start);
+        ids.put(start, 0);
+        int transitions = 0;
+        int epsilons = 0;
+        int finals = 0;
+        for (int s = 0; s < states.size(); s++) {
+            FSTState state = states.get(s);
+            for (FSTState next : state.nextCodeStates) {
+                if (ids.putIfAbsent(next, states.size()) < 0)
+                    states.add(next);
+            }
+            for (FSTState next : state.epsilonStates) {
+                if (ids.putIfAbsent(next, states.size()) < 0)
+                    states.add(next);
+            }
+            transitions += state.inCodes.length;
+            epsilons += state.epsilonStates.size();
+            if (state.isFinal())
+                finals += ((FinalState) state).relation.size();
+        }
+
+        int[] offsets = new int[states.size() + 1];
+        short[] inCodes = new short[transitions];
+        short[] outCodes = new short[transitions];
+        int[] targets = new int[transitions];
+        int[] epsilonOffsets = new int[states.size() + 1];
+        int[] epsilonTargets = new int[epsilons];
+        int[] finalOffsets = new int[states.size() + 1];
+        int[] fromPOS = new int[finals];
+        int[] toPOS = new int[finals];
+        String[] relations = new String[finals];
+        int[] weights = new int[finals];
+        for (int s = 0; s < states.size(); s++) {
+            FSTState state = states.get(s);
+            int t = offsets[s];
+            for (int x = 0; x < state.inCodes.length; x++, t++) {
+                inCodes[t] = state.inCodes[x];
+                outCodes[t] = state.outCodes[x];
+                targets[t] = ids.get(state.nextCodeStates[x]);
+            }
+            offsets[s + 1] = t;
+            int e = epsilonOffsets[s];
+            for (FSTState next : state.epsilonStates)
+                epsilonTargets[e++] = ids.get(next);
+            epsilonOffsets[s + 1] = e;
+            int f = finalOffsets[s];
+            if (state.isFinal()) {
+                FinalState finalState = (FinalState) state;
+                for (int x = 0; x < finalState.relation.size(); x++, f++) {
+                    fromPOS[f] = finalState.fromPOSIds[x];
+                    toPOS[f] = finalState.toPOSIds[x];
+                    relations[f] = finalState.relation.get(x);
+                    weights[f] = finalState.weight.get(x);
+                }
+            }
+            finalOffsets[s + 1] = f;
+        }
+        return new CompiledFST(lexicon, lexicon.posId(ANY_POS), offsets, inCodes, outCodes, targets,
+                epsilonOffsets, epsilonTargets, finalOffsets, fromPOS, toPOS, relations, weights);
+    }
+
+    /**
+     * Encodes the transitions and the POS of the accepting states of all states with
+     * a lexicon, which is the first step of {@link #compile(Lexicon)}.
+     * @param lexicon the lexicon with which the strings to transduce are encoded
+     */
+    private void encode(Lexicon lexicon) {
+        for (FSTState state : getStates())
+            state.encode(lexicon);
+    }
+
     /**
      * Applies this transducer to a giving input string, yielding an output string.
      * @param s the input string
@@ -296,6 +387,7 @@ public class FST {
     }
 
 
+
     /**
      * A state in an FST.
      */
@@ -306,6 +398,10 @@ public class FST {
         private List<FSTState> nextStates;
         // the epsilon transitions
         private List<FSTState> epsilonStates;
+        // the transitions encoded with a lexicon, sorted by input code
+        private short[] inCodes;
+        private short[] outCodes;
+        private FSTState[] nextCodeStates;
 
         private FSTState() {
             inChars = new TCharArrayList();
@@ -316,28 +412,25 @@ public class FST {
 
         /**
          * Creates the FST for a given pattern.
-         * @param pairs the pattern
-         * @param i the current position in the pattern
-         * @param fromPOS the input POS of the pattern
-         * @param toPOS the output POS of the pattern
-         * @param relation the label of the pattern
-         * @param weight the weight of the pattern
-         * @return the start state of the FST for the given pattern starting at i
+         * @param pattern the pattern
+         * @param t the current transition of the pattern
+         * @return the start state of the FST for the given pattern starting at t
          */
-        static FSTState createState(String[] pairs, int i, String fromPOS, String toPOS, String relation, int weight) {
-            if (i == pairs.length-1)
-                return new FinalState(fromPOS, toPOS, relation, weight);
+        static FSTState createState(Pattern pattern, int t) {
+            if (t == pattern.size())
+                return new FinalState(pattern.getFromPOS(), pattern.getToPOS(), pattern.getLabel(), pattern.getFreq());
             else {
                 FSTState state = new FSTState();
-                FSTState next = createState(pairs, i+1, fromPOS, toPOS, relation, weight);
-                if (pairs[i].equals("./.")) {
+                FSTState next = createState(pattern, t+1);
+                if (pattern.isAny(t)) {
                     state.addTransition(next, ANY_CHAR, ANY_CHAR);
                     next.addTransition(next, ANY_CHAR, ANY_CHAR);
                 }
                 else {
-                    char inChar = pairs[i].charAt(0);
-                    char outChar = pairs[i].charAt(2);
-                    state.addTransition(next, ((inChar == '-') ? NULL_CHAR : inChar), ((outChar == '-') ? NULL_CHAR : outChar));
+                    char inChar = pattern.getInput(t);
+                    char outChar = pattern.getOutput(t);
+                    state.addTransition(next, ((inChar == Pattern.EMPTY) ? NULL_CHAR : inChar),
+                            ((outChar == Pattern.EMPTY) ? NULL_CHAR : outChar));
                 }
                 return state;
             }
@@ -391,6 +484,38 @@ public class FST {
             epsilonStates.add(to);
         }
 
+        /**
+         * Encodes the transitions with the symbol codes of a lexicon.
+         * @param lexicon the lexicon
+         */
+        void encode(Lexicon lexicon) {
+            int size = inChars.size();
+            inCodes = new short[size];
+            outCodes = new short[size];
+            nextCodeStates = new FSTState[size];
+            for (int x = 0; x < size; x++) {
+                // insertion sort, which keeps transitions with the same input in their order
+                short inCode = encode(inChars.get(x), lexicon);
+                int y = x;
+                for (; y > 0 && inCodes[y-1] > inCode; y--) {
+                    inCodes[y] = inCodes[y-1];
+                    outCodes[y] = outCodes[y-1];
+                    nextCodeStates[y] = nextCodeStates[y-1];
+                }
+                inCodes[y] = inCode;
+                outCodes[y] = encode(outChars.get(x), lexicon);
+                nextCodeStates[y] = nextStates.get(x);
+            }
+        }
+
+        private static short encode(char c, Lexicon lexicon) {
+            if (c == NULL_CHAR)
+                return NULL_CODE;
+            if (c == ANY_CHAR)
+                return ANY_CODE;
+            return lexicon.code(c);
+        }
+
         void transduce(String s1, String s2, String pos1, String pos2, int i1, int i2, Result res) {
             if (i1 < s1.length() || i2 < s2.length()) {
 
@@ -505,6 +630,9 @@ public class FST {
         private List<String> toPOS;
         private List<String> relation;
         private TIntList weight;
+        // the POS encoded with a lexicon
+        private int[] fromPOSIds;
+        private int[] toPOSIds;
 
         FinalState() {
             super();
@@ -573,6 +701,17 @@ public class FST {
             super.transduce(s1, s2, pos1, pos2, i1, i2, res);
         }
 
+        @Override
+        void encode(Lexicon lexicon) {
+            super.encode(lexicon);
+            fromPOSIds = new int[fromPOS.size()];
+            toPOSIds = new int[toPOS.size()];
+            for (int x = 0; x < fromPOSIds.length; x++) {
+                fromPOSIds[x] = lexicon.posId(fromPOS.get(x));
+                toPOSIds[x] = lexicon.posId(toPOS.get(x));
+            }
+        }
+
         private void updateResultFor(String pos1, String pos2, Result res) {
             int x = firstIndexOf(fromPOS, pos1);
             if (x >= 0) {
@@ -675,6 +814,18 @@ public class FST {
             return new Result("", 0);
         }
 
+        /**
+         * Keeps a relation if its weight is higher than the one of the current relation.
+         * @param relation the relation
+         * @param weight its weight
+         */
+        void offer(String relation, int weight) {
+            if (this.weight < weight) {
+                this.relation = relation;
+                this.weight = weight;
+            }
+        }
+
         public boolean isEmpty() {
             return weight == 0 && relation.isEmpty();
         }
@@ -0,0 +1,125 @@
+package pattern;
+
+/**
+ * Aligns pairs of tokens of the form WORD:POS to find the transition patterns between
+ * them, as done by {@link SequenceAlignment#findPattern(String, String, double)}. An
+ * alignment uses the indel distance (a substitution costs as much as a deletion plus
+ * an insertion), and of all optimal alignments the one found by tracing back from the
+ * ends of both words, preferring deletions over insertions over same char
+ * substitutions, is taken. All implementations therefore find the same patterns and
+ * only differ in time and memory.
+ * Tokens are passed as char arrays together with the offset of the colon, so that no
+ * substrings have to be created. An aligner is not thread-safe, every thread needs its own.
+ */
+public interface Aligner {
+
+    /**
+     * Aligns two tokens to find a transition pattern between the two. If a pattern is
+     * found, it can be retrieved with {@link #getPattern()} or read from the buffer
+     * returned by {@link #getPatternChars()} until the next alignment.
+     * @param a a buffer containing the first token of the form WORD:POS
+     * @param split1 position of the colon in the first token
+     * @param end1 end of the first token
+     * @param b a buffer containing the second token of the form WORD:POS
+     * @param split2 position of the colon in the second token
+     * @param end2 end of the second token
+     * @param mustKeep portion of shorter string that must be kept
+     * @return true if at least mustKeep*shorterString.length characters are same char
+     * substitutions, i.e. if a pattern was found
+     */
+    boolean align(char[] a, int split1, int end1, char[] b, int split2, int end2, double mustKeep);
+
+    /**
+     * Aligns two tokens to find the transition patterns in both directions, i.e. the
+     * patterns that {@link #align(char[], int, int, char[], int, int, double)} would find
+     * for a and b and for b and a. If the patterns are found, they can be retrieved with
+     * {@link #getPattern()} and {@link #getReversePattern()}.
+     * @param a a buffer containing the first token of the form WORD:POS
+     * @param split1 position of the colon in the first token
+     * @param end1 end of the first token
+     * @param b a buffer containing the second token of the form WORD:POS
+     * @param split2 position of the colon in the second token
+     * @param end2 end of the second token
+     * @param mustKeep portion of shorter string that must be kept
+     * @return true if the patterns were found
+     */
+    boolean alignBoth(char[] a, int split1, int end1, char[] b, int split2, int end2, double mustKeep);
+
+    /**
+     * Aligns two tokens to find a transition pattern between the two.
+     * @param a first token
+     * @param b second token
+     * @param mustKeep portion of shorter string that must be kept
+     * @return the pattern or an empty string if mustKeep*shorterString.length did not equal
+     * the amount of same char substitutions
+     */
+    default String findPattern(String a, String b, double mustKeep) {
+        if (align(a.toCharArray(), a.indexOf(':'), a.length(), b.toCharArray(), b.indexOf(':'), b.length(), mustKeep))
+            return getPattern();
+        return "";
+    }
+
+    /**
+     * Aligns two tokens to find the transition patterns between the two in both directions.
+     * @param a first token
+     * @param b second token
+     * @param mustKeep portion of shorter string that must be kept
+     * @return the pattern from a to b and the pattern from b to a, or an empty array if
+     * mustKeep*shorterString.length did not equal the amount of same char substitutions
+     */
+    default String[] findPatterns(String a, String b, double mustKeep) {
+        if (alignBoth(a.toCharArray(), a.indexOf(':'), a.length(), b.toCharArray(), b.indexOf(':'), b.length(), mustKeep))
+            return new String[] {getPattern(), getReversePattern()};
+        return new String[0];
+    }
+
+    /**
+     * @return the pattern found by the last alignment, or an empty string if there was none
+     */
+    default String getPattern() {
+        return new String(getPatternChars(), 0, getPatternLength());
+    }
+
+    /**
+     * @return the buffer containing the pattern found by the last alignment in its first
+     * {@link #getPatternLength()} chars
+     */
+    char[] getPatternChars();
+
+    /**
+     * @return the length of the pattern found by the last alignment, or 0 if there was none
+     */
+    int getPatternLength();
+
+    /**
+     * @return the number of symbol transitions (not counting the POS transition) in the
+     * pattern found by the last alignment
+     */
+    int getPatternTransitions();
+
+    /**
+     * @return the pattern in the other direction found by the last call of alignBoth,
+     * or an empty string if there was none
+     */
+    default String getReversePattern() {
+        return new String(getReversePatternChars(), 0, getReversePatternLength());
+    }
+
+    /**
+     * @return the buffer containing the pattern in the other direction found by the last
+     * call of alignBoth in its first {@link #getReversePatternLength()} chars
+     */
+    char[] getReversePatternChars();
+
+    /**
+     * @return the length of the pattern in the other direction found by the last call of
+     * alignBoth, or 0 if there was none
+     */
+    int getReversePatternLength();
+
+    /**
+     * @return the number of symbol transitions (not counting the POS transition) in the
+     * pattern in the other direction found by the last call of alignBoth
+     */
+    int getReversePatternTransitions();
+}
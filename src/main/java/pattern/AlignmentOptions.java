@@ -0,0 +1,302 @@
+package pattern;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+/**
+ * Options for an alignment run of {@link SequenceAlignment}.
+ */
+public class AlignmentOptions {
+
+    // number of threads to align with
+    private int threads = 1;
+    // number of counters for approximate counting, 0 for exact counting
+    private int counters = 0;
+    // number of patterns in memory before they are spilled to disk, 0 for no spilling
+    private int spill = 0;
+    // portion of the pairs to align
+    private double sample = 1;
+    // seed for shuffling the words and sampling the pairs
+    private long seed = new Random().nextLong();
+    // file for checkpoints, null for no checkpoints
+    private String checkpoint = null;
+    // seconds between two checkpoints
+    private int checkpointInterval = 600;
+    // whether to resume from the checkpoint file
+    private boolean resume = false;
+    // creates the aligner of each thread
+    private Supplier<? extends Aligner> aligner = BitParallelAligner::new;
+    // file with the state of previous runs, null for no state
+    private String state = null;
+    // the slice of the pairs to align, out of shards slices
+    private int shard = 0;
+    private int shards = 1;
+    // the POS pairs whose patterns are counted, like V/N, null to count all pairs
+    private Set<String> posPairs = null;
+
+    /**
+     * @return the number of threads to align with
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param threads the number of threads to align with
+     */
+    public void setThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Number of threads must be positive: " + threads);
+        this.threads = threads;
+    }
+
+    /**
+     * @return the number of counters for approximate counting, 0 for exact counting
+     */
+    public int getCounters() {
+        return counters;
+    }
+
+    /**
+     * Sets the number of patterns that are counted at the same time. With 0, all patterns
+     * are counted exactly, which needs memory for every distinct pattern found. With k > 0,
+     * the patterns are counted in a Space-Saving summary of k counters per thread, which
+     * bounds the memory, but frequencies may be underestimated by up to 2N/k, where N is
+     * twice the number of kept pairs.
+     * @param counters the number of counters, 0 for exact counting
+     */
+    public void setCounters(int counters) {
+        if (counters < 0)
+            throw new IllegalArgumentException("Number of counters must not be negative: " + counters);
+        this.counters = counters;
+    }
+
+    /**
+     * @return the number of patterns in memory before they are spilled to disk, 0 for
+     * no spilling
+     */
+    public int getSpill() {
+        return spill;
+    }
+
+    /**
+     * Sets the number of patterns that are held in memory per thread before they are
+     * spilled to a temporary file as a sorted run. With spilling, the patterns are
+     * counted exactly in bounded memory and the runs are merged into the pattern file
+     * at the end, see {@link SequenceAlignment#writePatterns}. Spilling cannot be
+     * combined with approximate counting.
+     * @param spill the number of patterns, 0 for no spilling
+     */
+    public void setSpill(int spill) {
+        if (spill < 0)
+            throw new IllegalArgumentException("Spill limit must not be negative: " + spill);
+        this.spill = spill;
+    }
+
+    /**
+     * @return the portion of the pairs to align
+     */
+    public double getSample() {
+        return sample;
+    }
+
+    /**
+     * Sets the portion of the word pairs that are aligned. Every pair is chosen with this
+     * probability, and the frequencies of the patterns found are scaled up by its inverse
+     * to estimate the frequencies of a run over all pairs.
+     * @param sample the portion of the pairs to align, 1 to align all pairs
+     */
+    public void setSample(double sample) {
+        if (!(sample > 0 && sample <= 1))
+            throw new IllegalArgumentException("Sample must be in (0, 1]: " + sample);
+        this.sample = sample;
+    }
+
+    /**
+     * @return the seed for shuffling the words and sampling the pairs
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Sets the seed for shuffling the words and sampling the pairs, which makes a sampled
+     * run repeatable. By default, a random seed is used.
+     * @param seed the seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @return the file for checkpoints, null for no checkpoints
+     */
+    public String getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Sets the file to which the state of the alignment is written regularly, so that
+     * an interrupted run can be resumed, see {@link #setResume(boolean)}. Checkpoints
+     * need exact counting without spilling.
+     * @param checkpoint the file for checkpoints, null for no checkpoints
+     */
+    public void setCheckpoint(String checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * @return the seconds between two checkpoints
+     */
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * @param checkpointInterval the seconds between two checkpoints
+     */
+    public void setCheckpointInterval(int checkpointInterval) {
+        if (checkpointInterval < 0)
+            throw new IllegalArgumentException("Checkpoint interval must not be negative: " + checkpointInterval);
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * @return whether to resume from the checkpoint file
+     */
+    public boolean isResume() {
+        return resume;
+    }
+
+    /**
+     * Sets whether an alignment run continues from the checkpoint file instead of
+     * starting over. The seed is then taken from the checkpoint.
+     * @param resume whether to resume from the checkpoint file
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * @return the factory for the aligner of each thread
+     */
+    public Supplier<? extends Aligner> getAligner() {
+        return aligner;
+    }
+
+    /**
+     * Sets how pairs are aligned. All aligners find the same patterns; by default, a
+     * {@link BitParallelAligner} is used, which is fastest for words, while a {@link Hirschberg}
+     * needs much less memory for long tokens such as phrases.
+     * @param aligner the factory for the aligner of each thread, e.g. Hirschberg::new
+     */
+    public void setAligner(Supplier<? extends Aligner> aligner) {
+        if (aligner == null)
+            throw new IllegalArgumentException("Aligner must not be null");
+        this.aligner = aligner;
+    }
+
+    /**
+     * @return the file with the state of previous runs, null for no state
+     */
+    public String getState() {
+        return state;
+    }
+
+    /**
+     * Sets the file in which the words and the exact pattern counts of an alignment run
+     * are kept. If the file exists, only the pairs with words that are not in it yet are
+     * aligned, and their counts are added to those of the file. Either way, the file is
+     * updated with all words and counts afterwards, so that a growing lexicon can be
+     * aligned incrementally. The state needs exact counting of all pairs.
+     * @param state the file with the state, null for no state
+     */
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    /**
+     * @return the slice of the pairs to align, from 0 to shards-1
+     */
+    public int getShard() {
+        return shard;
+    }
+
+    /**
+     * @return the number of slices the pairs are split into
+     */
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * Splits the pairs into slices with about the same number of pairs, of which only
+     * one is aligned. The slices can be aligned by separate processes, which write
+     * partial counts that are merged by {@link SequenceAlignment#mergePatterns}. All
+     * slices must be aligned with the same seed and sample.
+     * @param shard the slice to align, from 0 to shards-1
+     * @param shards the number of slices, 1 to align all pairs
+     */
+    public void setShard(int shard, int shards) {
+        if (shards < 1 || shard < 0 || shard >= shards)
+            throw new IllegalArgumentException("Invalid shard " + shard + " of " + shards);
+        this.shard = shard;
+        this.shards = shards;
+    }
+
+    /**
+     * @return the POS pairs whose patterns are counted, like V/N, null to count all pairs
+     */
+    public Set<String> getPOSPairs() {
+        return posPairs;
+    }
+
+    /**
+     * Restricts the alignment to some pairs of POS, each given like the POS transition of
+     * a pattern, e.g. V/N for the patterns that derive a noun from a verb. The words are
+     * partitioned by their POS, and only the pairs of partitions with an enabled POS pair
+     * in at least one direction are aligned, each as a unit of its own, whose patterns are
+     * only counted in the enabled directions. With shards, every shard aligns whole units
+     * instead of a slice of the pairs, so with as many shards as units every unit can be
+     * aligned and written separately and the files are merged as usual.
+     * @param posPairs the POS pairs, null to align all pairs
+     */
+    public void setPOSPairs(Collection<String> posPairs) {
+        if (posPairs == null) {
+            this.posPairs = null;
+            return;
+        }
+        Set<String> pairs = new TreeSet<>();
+        for (String pair : posPairs) {
+            String[] pos = pair.split("/", -1);
+            if (pos.length != 2 || pos[0].isEmpty() || pos[1].isEmpty())
+                throw new IllegalArgumentException("Invalid POS pair: " + pair);
+            pairs.add(pair);
+        }
+        if (pairs.isEmpty())
+            throw new IllegalArgumentException("No POS pairs given");
+        this.posPairs = Collections.unmodifiableSet(pairs);
+    }
+
+    /**
+     * @return a new aligner as configured by these options
+     */
+    Aligner newAligner() {
+        return aligner.get();
+    }
+
+    /**
+     * @return a new, empty counter as configured by these options
+     */
+    PatternCounter newCounter() {
+        if (spill > 0 && counters > 0)
+            throw new IllegalStateException("Spilling cannot be combined with approximate counting");
+        if (spill > 0)
+            return new SpillingCounter(spill);
+        return (counters == 0) ? new PatternTable() : new SpaceSaving(counters);
+    }
+}
@@ -0,0 +1,29 @@
+package pattern;
+
+/**
+ * Counts of the word pairs seen during an alignment run.
+ */
+class AlignmentStats {
+
+    // pairs rejected by the pre-filters without alignment
+    long filtered;
+    // pairs that were aligned
+    long aligned;
+    // aligned pairs that yielded a pattern
+    long kept;
+
+    /**
+     * Adds the counts of another statistics object to this one.
+     * @param other the other statistics
+     */
+    void add(AlignmentStats other) {
+        filtered += other.filtered;
+        aligned += other.aligned;
+        kept += other.kept;
+    }
+
+    @Override
+    public String toString() {
+        return "Filtered " + filtered + " pairs, aligned " + aligned + " pairs, kept " + kept + " pairs";
+    }
+}
@@ -0,0 +1,239 @@
+package pattern;
+
+/**
+ * Aligns pairs of tokens like {@link PairAligner}, finding exactly the same patterns,
+ * but computes 64 cells of a column of the table at once with bit operations on a long.
+ * <p>
+ * The distance of an alignment is len1+len2-2*equal, so the table only needs the length
+ * of the longest common subsequence of every pair of prefixes. Its column j is stored as
+ * a bit vector over the symbols of the first word, with bit i-1 cleared if the value
+ * grows from row i-1 to row i, and each column is computed from the previous one with
+ * an addition and a few bit operations (Hyyro's bit-parallel LCS). The value of a cell
+ * is the number of cleared bits above it, so the traceback runs on the bit vectors with
+ * the same tie-breaking as in the full table.
+ * The match masks of the first word, one bit vector per symbol, are kept as long as the
+ * first word does not change, so they are built once per row of a {@link PairMatrix}.
+ * Words with more symbols than a long has bits are aligned by a {@link PairAligner}.
+ * <p>
+ * An aligner is not thread-safe, every thread needs its own.
+ */
+public class BitParallelAligner implements Aligner {
+
+    // highest length of a first word whose columns fit in a long
+    private static final int MAX_LENGTH = Long.SIZE;
+
+    // the match mask of each char for the current first word
+    private final long[] masks;
+    // the current first word
+    private char[] query;
+    private int queryLength;
+    // the columns of the table, column j being the bit vector after j symbols of the second word
+    private long[] columns;
+
+    // the aligner for words longer than MAX_LENGTH, and whether it found the last patterns
+    private final PairAligner fallback;
+    private boolean wide;
+
+    // the patterns of the last successful alignment in both directions
+    private final PatternBuilder forward;
+    private final PatternBuilder reverse;
+
+    public BitParallelAligner() {
+        masks = new long[Character.MAX_VALUE + 1];
+        query = new char[MAX_LENGTH];
+        columns = new long[64];
+        fallback = new PairAligner();
+        forward = new PatternBuilder();
+        reverse = new PatternBuilder();
+    }
+
+    @Override
+    public boolean align(char[] a, int split1, int end1, char[] b, int split2, int end2, double mustKeep) {
+        wide = split1 > MAX_LENGTH;
+        if (wide)
+            return fallback.align(a, split1, end1, b, split2, end2, mustKeep);
+        forward.clear();
+        reverse.clear();
+        // pairs in which one word contains the other need no table
+        if (forward.buildContained(a, split1, end1, b, split2, end2, mustKeep))
+            return forward.found();
+        return fillColumns(a, split1, b, split2, mustKeep)
+                && traceback(a, split1, end1, b, split2, end2, mustKeep, forward);
+    }
+
+    /**
+     * Both patterns are traced back through the same columns, each with the tie-breaking
+     * of its own direction.
+     */
+    @Override
+    public boolean alignBoth(char[] a, int split1, int end1, char[] b, int split2, int end2, double mustKeep) {
+        wide = split1 > MAX_LENGTH;
+        if (wide)
+            return fallback.alignBoth(a, split1, end1, b, split2, end2, mustKeep);
+        forward.clear();
+        reverse.clear();
+        if (forward.buildContained(a, split1, end1, b, split2, end2, mustKeep))
+            return forward.found() && reverse.buildContained(b, split2, end2, a, split1, end1, mustKeep)
+                    && reverse.found();
+        return fillColumns(a, split1, b, split2, mustKeep)
+                && traceback(a, split1, end1, b, split2, end2, mustKeep, forward)
+                && tracebackTransposed(a, split1, end1, b, split2, end2, mustKeep, reverse);
+    }
+
+    /**
+     * Computes the columns of the table of the longest common subsequences of the
+     * prefixes of two strings.
+     * @param a the first string
+     * @param n the length of the first string, at most MAX_LENGTH
+     * @param b the second string
+     * @param m the length of the second string
+     * @param mustKeep portion of shorter string that must be kept
+     * @return false if the pattern can certainly not be kept
+     */
+    private boolean fillColumns(char[] a, int n, char[] b, int m, double mustKeep) {
+        setQuery(a, n);
+        if (columns.length < m + 1)
+            columns = new long[Math.max(m + 1, columns.length*2)];
+
+        long[] masks = this.masks;
+        long[] columns = this.columns;
+        long v = -1L;
+        columns[0] = v;
+        for (int j = 1; j <= m; j++) {
+            long u = v & masks[b[j - 1]];
+            v = (v + u) | (v - u);
+            columns[j] = v;
+        }
+        // every optimal alignment has the same number of same char substitutions
+        return lcs(v, n) > Math.min(n, m)*mustKeep;
+    }
+
+    /**
+     * Builds the match masks of a new first word, unless it equals the current one.
+     */
+    private void setQuery(char[] a, int n) {
+        if (n == queryLength) {
+            int i = 0;
+            while (i < n && query[i] == a[i])
+                i++;
+            if (i == n)
+                return;
+        }
+        for (int i = 0; i < queryLength; i++)
+            masks[query[i]] = 0;
+        for (int i = 0; i < n; i++) {
+            masks[a[i]] |= 1L << i;
+            query[i] = a[i];
+        }
+        queryLength = n;
+    }
+
+    /**
+     * @param column a column of the table
+     * @param i the row
+     * @return the length of the longest common subsequence in row i of the column
+     */
+    private static int lcs(long column, int i) {
+        long rows = (i == MAX_LENGTH) ? -1L : (1L << i) - 1;
+        return Long.bitCount(~column & rows);
+    }
+
+    /**
+     * Retrieves the pattern between two tokens from the current columns, see
+     * {@link PairAligner}. The distance of a cell grows by one to the cell below
+     * or to the right if the longest common subsequence stays the same.
+     * @param a a buffer containing the first token of the form WORD:POS
+     * @param n position of the colon in the first token
+     * @param end1 end of the first token
+     * @param b a buffer containing the second token of the form WORD:POS
+     * @param m position of the colon in the second token
+     * @param end2 end of the second token
+     * @param mustKeep portion of shorter string that must be kept
+     * @param out the buffer to build the pattern in
+     * @return true if at least mustKeep*shorterString.length characters are same char
+     * substitutions, i.e. if a pattern was found
+     */
+    private boolean traceback(char[] a, int n, int end1, char[] b, int m, int end2,
+                              double mustKeep, PatternBuilder out) {
+        out.start(PatternBuilder.capacity(n, end1, m, end2));
+
+        // retrieve pattern (backwards, it is reversed afterwards)
+        for (int i = n, j = m, lcs = lcs(columns[m], n); i > 0 || j > 0; ) {
+            if (i > 0 && (columns[j] >>> (i - 1) & 1) != 0) {
+                out.delete(a[--i]);
+            } else if (j > 0 && lcs(columns[j - 1], i) == lcs) {
+                out.insert(b[--j]);
+            } else {
+                i--;
+                j--;
+                lcs--;
+                out.match();
+            }
+        }
+        return out.finish(a, n, end1, b, m, end2, mustKeep);
+    }
+
+    /**
+     * Retrieves the pattern from the second token to the first one from the current
+     * columns, i.e. traces back through the transposed table.
+     * @param a a buffer containing the first token of the form WORD:POS
+     * @param n position of the colon in the first token
+     * @param end1 end of the first token
+     * @param b a buffer containing the second token of the form WORD:POS
+     * @param m position of the colon in the second token
+     * @param end2 end of the second token
+     * @param mustKeep portion of shorter string that must be kept
+     * @param out the buffer to build the pattern in
+     * @return true if at least mustKeep*shorterString.length characters are same char
+     * substitutions, i.e. if a pattern was found
+     */
+    private boolean tracebackTransposed(char[] a, int n, int end1, char[] b, int m, int end2,
+                                        double mustKeep, PatternBuilder out) {
+        out.start(PatternBuilder.capacity(m, end2, n, end1));
+
+        // retrieve pattern (backwards, it is reversed afterwards)
+        for (int i = n, j = m, lcs = lcs(columns[m], n); i > 0 || j > 0; ) {
+            if (j > 0 && lcs(columns[j - 1], i) == lcs) {
+                out.delete(b[--j]);
+            } else if (i > 0 && (columns[j] >>> (i - 1) & 1) != 0) {
+                out.insert(a[--i]);
+            } else {
+                i--;
+                j--;
+                lcs--;
+                out.match();
+            }
+        }
+        return out.finish(b, m, end2, a, n, end1, mustKeep);
+    }
+
+    @Override
+    public char[] getPatternChars() {
+        return (wide) ? fallback.getPatternChars() : forward.chars;
+    }
+
+    @Override
+    public int getPatternLength() {
+        return (wide) ? fallback.getPatternLength() : forward.length;
+    }
+
+    @Override
+    public int getPatternTransitions() {
+        return (wide) ? fallback.getPatternTransitions() : forward.transitions;
+    }
+
+    @Override
+    public char[] getReversePatternChars() {
+        return (wide) ? fallback.getReversePatternChars() : reverse.chars;
+    }
+
+    @Override
+    public int getReversePatternLength() {
+        return (wide) ? fallback.getReversePatternLength() : reverse.length;
+    }
+
+    @Override
+    public int getReversePatternTransitions() {
+        return (wide) ? fallback.getReversePatternTransitions() : reverse.transitions;
+    }
+}
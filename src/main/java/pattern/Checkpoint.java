@@ -0,0 +1,251 @@
+package pattern;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A checkpoint file of an alignment run, from which an interrupted run can be resumed.
+ * The file starts with a header that identifies the run (the number of words, a
+ * fingerprint of the words, the seed, the sample and the shard), followed by segments. Every
+ * segment holds the number of rows aligned so far, the statistics and the pattern
+ * counts of the rows aligned since the previous segment, and is closed by an end
+ * marker. Checkpoints are thus written incrementally: a segment only contains the
+ * patterns found since the last checkpoint, and it is appended on a background
+ * thread while the alignment goes on. On resume, all complete segments are added up;
+ * a segment that was cut off by a crash is discarded.
+ */
+class Checkpoint implements Closeable {
+
+    private static final int MAGIC = 0x50414331;
+    private static final int SEGMENT = 0x53454731;
+    private static final int END = 0x454e4431;
+
+    // the counts, statistics and number of rows restored from the file
+    private final PatternTable table;
+    private final AlignmentStats stats;
+    private final int cursor;
+
+    // the writer, only used on the background thread
+    private final RunWriter writer;
+    private final ExecutorService background;
+    // whether a segment is being written
+    private final AtomicBoolean writing;
+
+    private Checkpoint(PatternTable table, AlignmentStats stats, int cursor, RunWriter writer) {
+        this.table = table;
+        this.stats = stats;
+        this.cursor = cursor;
+        this.writer = writer;
+        this.writing = new AtomicBoolean();
+        this.background = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts a new checkpoint file, overwriting an existing one.
+     * @param file the checkpoint file
+     * @param words the sorted words to align
+     * @param options the options of the run
+     * @return the checkpoint
+     * @throws IOException if the file cannot be written
+     */
+    static Checkpoint create(Path file, List<String> words, AlignmentOptions options) throws IOException {
+        RunWriter writer = new RunWriter(file);
+        writer.writeInt(MAGIC);
+        writer.writeInt(words.size());
+        writer.writeLong(fingerprint(words));
+        writer.writeLong(options.getSeed());
+        writer.writeLong(Double.doubleToLongBits(options.getSample()));
+        writer.writeInt(options.getShard());
+        writer.writeInt(options.getShards());
+        writer.sync();
+        return new Checkpoint(new PatternTable(), new AlignmentStats(), 0, writer);
+    }
+
+    /**
+     * Restores the state of a run from a checkpoint file and continues writing to it.
+     * The seed of the options is set to the seed of the checkpointed run, so that the
+     * words are shuffled and the pairs are sampled the same way again.
+     * @param file the checkpoint file
+     * @param words the sorted words to align
+     * @param options the options of the run
+     * @return the checkpoint
+     * @throws IOException if the file cannot be read or belongs to another run
+     */
+    static Checkpoint resume(Path file, List<String> words, AlignmentOptions options) throws IOException {
+        long valid;
+        try (RunReader reader = new RunReader(file)) {
+            if (reader.readInt() != MAGIC)
+                throw new IOException("Not a checkpoint file: " + file);
+            if (reader.readInt() != words.size() || reader.readLong() != fingerprint(words))
+                throw new IOException("Checkpoint " + file + " was written for other data");
+            long seed = reader.readLong();
+            if (reader.readLong() != Double.doubleToLongBits(options.getSample()))
+                throw new IOException("Checkpoint " + file + " was written with another sample");
+            if (reader.readInt() != options.getShard() || reader.readInt() != options.getShards())
+                throw new IOException("Checkpoint " + file + " was written for another shard");
+            options.setSeed(seed);
+            valid = reader.position();
+
+            // find the end of the last complete segment
+            try {
+                while (reader.readInt() == SEGMENT) {
+                    reader.readInt();
+                    int patterns = readSegmentHeader(reader, new AlignmentStats());
+                    for (int p = 0; p < patterns; p++)
+                        if (!reader.next())
+                            throw new EOFException();
+                    if (reader.readInt() != END)
+                        break;
+                    valid = reader.position();
+                }
+            }
+            catch (EOFException e) {
+                // the last segment is incomplete
+            }
+        }
+        // cut off an incomplete segment
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(valid);
+        }
+
+        // add up all complete segments, directly into one table
+        PatternTable table = new PatternTable();
+        AlignmentStats stats = new AlignmentStats();
+        int cursor = 0;
+        try (RunReader reader = new RunReader(file)) {
+            reader.readInt();
+            reader.readInt();
+            reader.readLong();
+            reader.readLong();
+            reader.readLong();
+            reader.readInt();
+            reader.readInt();
+            while (reader.position() < valid) {
+                reader.readInt();
+                cursor = reader.readInt();
+                int patterns = readSegmentHeader(reader, stats);
+                for (int p = 0; p < patterns; p++) {
+                    reader.next();
+                    table.addEncoded(reader.key(), 0, reader.length(), reader.count());
+                }
+                reader.readInt();
+            }
+        }
+        return new Checkpoint(table, stats, cursor, new RunWriter(file, true));
+    }
+
+    /**
+     * Reads the statistics and the number of patterns of a segment, after its marker
+     * and cursor.
+     * @param reader the reader of the checkpoint file
+     * @param stats the statistics to add the statistics of the segment to
+     * @return the number of patterns in the segment
+     * @throws IOException if the file cannot be read
+     */
+    private static int readSegmentHeader(RunReader reader, AlignmentStats stats) throws IOException {
+        stats.filtered += reader.readLong();
+        stats.aligned += reader.readLong();
+        stats.kept += reader.readLong();
+        return reader.readInt();
+    }
+
+    /**
+     * @param words the sorted words to align
+     * @return a fingerprint of the words
+     */
+    static long fingerprint(List<String> words) {
+        long hash = 1;
+        for (String word : words)
+            hash = 31 * hash + word.hashCode();
+        return hash;
+    }
+
+    /**
+     * @return the counts restored from the file
+     */
+    PatternTable table() {
+        return table;
+    }
+
+    /**
+     * @return the statistics restored from the file
+     */
+    AlignmentStats stats() {
+        return stats;
+    }
+
+    /**
+     * @return the number of rows aligned according to the file
+     */
+    int cursor() {
+        return cursor;
+    }
+
+    /**
+     * @return whether the previous segment is still being written, in which case the
+     * next checkpoint should be postponed
+     */
+    boolean isWriting() {
+        return writing.get();
+    }
+
+    /**
+     * Appends a segment to the file on the background thread. The given table and
+     * statistics must not be changed afterwards.
+     * @param cursor the number of rows aligned so far
+     * @param delta the counts of the rows aligned since the previous segment
+     * @param deltaStats the statistics of the rows aligned since the previous segment
+     */
+    void append(int cursor, PatternTable delta, AlignmentStats deltaStats) {
+        writing.set(true);
+        background.execute(() -> {
+            try {
+                writer.writeInt(SEGMENT);
+                writer.writeInt(cursor);
+                writer.writeLong(deltaStats.filtered);
+                writer.writeLong(deltaStats.aligned);
+                writer.writeLong(deltaStats.kept);
+                writer.writeInt(delta.size());
+                delta.writeRecords(writer);
+                writer.writeInt(END);
+                writer.sync();
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            finally {
+                writing.set(false);
+            }
+        });
+    }
+
+    /**
+     * Waits until all segments are written and closes the file.
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        background.shutdown();
+        try {
+            background.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer.close();
+    }
+}
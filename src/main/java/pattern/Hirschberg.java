@@ -1,207 +1,315 @@
 package pattern;
 
-import java.util.Stack;
+import java.util.Arrays;
 
-public class Hirschberg {
+/**
+ * Aligns pairs of tokens like {@link PairAligner}, finding exactly the same patterns,
+ * but in memory that grows only linearly with the length of the tokens, which makes
+ * it suitable for long tokens such as multi-word entries and phrases.
+ * <p>
+ * Like Hirschberg's algorithm, the table is split at its middle row, the row is
+ * computed in linear space, and both halves are solved recursively. Hirschberg's
+ * algorithm joins the halves at any optimal cell of the middle row, though, which may
+ * yield another optimal alignment than the traceback of {@link PairAligner}. Here,
+ * the traceback is reproduced exactly instead: the lower half is traced back first,
+ * starting from the forward row in the middle, which gives the cell in which the
+ * traceback enters the middle row, and the upper half is traced back from there.
+ * To recompute fewer rows, the table is split into PARTS parts instead of two halves,
+ * and parts of at most BLOCK_ROWS rows are computed and traced back in one go. This
+ * needs the rows of one block plus PARTS rows per level of recursion, i.e. O(w log n)
+ * memory for a band of width w, at the cost of recomputing every row O(log n) times.
+ * <p>
+ * All rows are kept in one array, which is used as a stack, and the pattern is built
+ * in a reused char array, so no memory is allocated per pair.
+ * An aligner is not thread-safe, every thread needs its own.
+ */
+public class Hirschberg implements Aligner {
 
-    private static final int SAME_COST = 1;
-    private static final int SUB_COST = -1;
-    private static final int INDEL_COST = -1;
+    // value of cells outside the band of the Levenshtein table
+    private static final int UNREACHABLE = Integer.MAX_VALUE/2;
+    // number of rows that are computed and traced back in one go
+    private static final int BLOCK_ROWS = 32;
+    // number of parts into which larger ranges of rows are split
+    private static final int PARTS = 16;
 
-    private Stack<Character> from;
-    private Stack<Character> to;
+    // the rows of the table, used as a stack
+    private int[] rows;
+    // the end of the used part of the rows
+    private int top;
+    // number of diagonals in the band
+    private int width;
+    // lowest diagonal j-i of the band
+    private int kmin;
+    // difference of the lengths of the strings
+    private int delta;
+    // highest distance of an alignment that keeps the pattern
+    private int maxDist;
 
-    private String s1;
-    private String s2;
-    private String r1;
-    private String r2;
+    // the patterns of the last successful alignment in both directions
+    private final PatternBuilder forward;
+    private final PatternBuilder reverse;
 
     public Hirschberg() {
-        from = new Stack<>();
-        to = new Stack<>();
+        rows = new int[256];
+        forward = new PatternBuilder();
+        reverse = new PatternBuilder();
     }
 
-    public String findPattern(String a, String b) {
-        int split1 = a.indexOf(':');
-        int split2 = b.indexOf(':');
-        s1 = a.substring(0, split1);
-        s2 = b.substring(0, split2);
-        r1 = new StringBuilder(s1).reverse().toString();
-        r2 = new StringBuilder(s2).reverse().toString();
-
-        hirschberg(0, s1.length(), 0, s2.length());
-
-        StringBuilder res = new StringBuilder(Math.max(s1.length(),s2.length())*4+10);
-        int equal = 0;
-        boolean justAppended = false;
+    @Override
+    public boolean align(char[] a, int split1, int end1, char[] b, int split2, int end2, double mustKeep) {
+        forward.clear();
+        reverse.clear();
+        // pairs in which one word contains the other need no table
+        if (forward.buildContained(a, split1, end1, b, split2, end2, mustKeep))
+            return forward.found();
+        return trace(a, split1, end1, b, split2, end2, mustKeep, forward);
+    }
 
-        while (!from.isEmpty()) {
-            char fromC = from.pop();
-            char toC = to.pop();
+    /**
+     * The pattern in the other direction is traced back through the table for b and a,
+     * which is the transposed table for a and b, so both directions are kept or both
+     * are rejected.
+     */
+    @Override
+    public boolean alignBoth(char[] a, int split1, int end1, char[] b, int split2, int end2, double mustKeep) {
+        forward.clear();
+        reverse.clear();
+        if (forward.buildContained(a, split1, end1, b, split2, end2, mustKeep))
+            return forward.found() && reverse.buildContained(b, split2, end2, a, split1, end1, mustKeep)
+                    && reverse.found();
+        return trace(a, split1, end1, b, split2, end2, mustKeep, forward)
+                && trace(b, split2, end2, a, split1, end1, mustKeep, reverse);
+    }
 
-            if (!to.isEmpty() && fromC == '-' && to.peek() == '-') {
-                fromC = from.pop();
-                to.pop();
-            }
-            if (!from.isEmpty() && toC == '-' && from.peek() == '-') {
-                toC = to.pop();
-                from.pop();
-            }
+    /**
+     * Retrieves the pattern between two tokens.
+     * @param a a buffer containing the first token of the form WORD:POS
+     * @param n position of the colon in the first token
+     * @param end1 end of the first token
+     * @param b a buffer containing the second token of the form WORD:POS
+     * @param m position of the colon in the second token
+     * @param end2 end of the second token
+     * @param mustKeep portion of shorter string that must be kept
+     * @param out the buffer to build the pattern in
+     * @return true if at least mustKeep*shorterString.length characters are same char
+     * substitutions, i.e. if a pattern was found
+     */
+    private boolean trace(char[] a, int n, int end1, char[] b, int m, int end2, double mustKeep,
+                          PatternBuilder out) {
+        // the distance of the alignment is len1+len2-2*equal, so the number of same
+        // char substitutions needed to keep the pattern bounds the distance
+        maxDist = n + m - 2*SequenceAlignment.minEqual(Math.min(n, m), mustKeep);
+        delta = m - n;
+        if (maxDist < Math.abs(delta))
+            return false;
+        // only the diagonals j-i which a path with at most maxDist can pass are computed
+        int slack = (maxDist - Math.abs(delta)) / 2;
+        kmin = Math.min(0, delta) - slack;
+        width = Math.max(0, delta) + slack - kmin + 1;
+        top = 0;
 
-            if (fromC == toC) {
-                if (!justAppended) {
-                    res.append("./. ");
-                    justAppended = true;
-                }
-                equal++;
-            }
-            else {
-                res.append(fromC).append('/').append(toC).append(" ");
-                justAppended = false;
-            }
+        int first = push();
+        for (int k = 0; k < width; k++) {
+            int j = k + kmin;
+            rows[first + k] = (j >= 0 && j <= m) ? j : UNREACHABLE;
         }
+        // every optimal alignment has the same number of same char substitutions, so
+        // whether the pattern is kept is known before the traceback
+        int last = push();
+        if (!forwardRow(a, b, m, 0, first, n, last))
+            return false;
+        int dist = cell(last, n, m);
+        top = last;
+        if (dist > maxDist || !((n + m - dist) / 2 > Math.min(n, m)*mustKeep))
+            return false;
 
-        if (equal > Math.min(s1.length(), s2.length())/3.0)
-            return res.append(a.substring(split1+1)).append("/").append(b.substring(split2+1)).toString();
-        return "";
+        out.start(PatternBuilder.capacity(n, end1, m, end2));
+        // retrieve pattern (backwards, it is reversed afterwards)
+        int j = traceRows(a, b, m, 0, first, n, m, out);
+        while (j > 0)
+            out.insert(b[--j]);
+        return out.finish(a, n, end1, b, m, end2, mustKeep);
     }
 
-    private void hirschberg(int a, int x, int b, int y) {
-        if (a >= x)
-            for (int j = y-1; j >= b; j--) {
-                from.push('-');
-                to.push(s2.charAt(j));
-            }
-        else if (b >= y)
-            for (int i = x-1; i >= a; i--) {
-                from.push(s1.charAt(i));
-                to.push('-');
-            }
-        else {
-            int s1len = x-a;
-            int s2len = y-b;
-            if (s1len == 1 || s2len == 1)
-                needlemanWunsch(a, x, b, y);
-            else {
-                int s1mid = a+s1len/2;
-                int s2mid = b+maxVal(nwScore(a, s1mid, b, y),
-                        nwScore(r1.length()-x, r1.length()-s1mid,
-                                r2.length()-y, r2.length()-b));
-                hirschberg(s1mid, x, s2mid, y);
-                hirschberg(a, s1mid, b, s2mid);
+    /**
+     * Traces back the alignment from a cell to the row in which the traceback enters
+     * a given upper row.
+     * @param a the first string
+     * @param b the second string
+     * @param m the length of the second string
+     * @param upper the upper row
+     * @param upperRow the position of the upper row in the rows
+     * @param i the row of the cell
+     * @param j the column of the cell
+     * @param out the buffer to build the pattern in
+     * @return the column in which the traceback enters the upper row
+     */
+    private int traceRows(char[] a, char[] b, int m, int upper, int upperRow, int i, int j, PatternBuilder out) {
+        if (i - upper <= BLOCK_ROWS) {
+            // compute all rows of the block and trace back through them
+            int block = top;
+            for (int r = upper; r < i; r++)
+                push();
+            for (int r = upper + 1; r <= i; r++)
+                computeRow(a, b, m, r, row(block, upper, upperRow, r - 1), row(block, upper, upperRow, r));
+            while (i > upper) {
+                int here = cell(row(block, upper, upperRow, i), i, j);
+                int above = row(block, upper, upperRow, i - 1);
+                if (here == cell(above, i - 1, j) + 1) {
+                    out.delete(a[--i]);
+                } else if (j > 0 && here == cell(row(block, upper, upperRow, i), i, j - 1) + 1) {
+                    out.insert(b[--j]);
+                } else if (j > 0 && here == cell(above, i - 1, j - 1)) {
+                    i--;
+                    j--;
+                    out.match();
+                }
             }
+            top = block;
+            return j;
         }
-    }
 
-    private int[] nwScore(int a, int x, int b, int y) {
-        int s1l = x-a;
-        int s2l = y-b;
-        int[] cur = new int[s2l+1];
-        int[] prev = new int[s2l+1];
-
-        for (int i = 0; i < cur.length; i++)
-            cur[i] = INDEL_COST*i;
-
-        for (int i = 1; i <= s1l; i++) {
-            int[] tmp = prev;
-            prev = cur;
-            cur = tmp;
-            cur[0] = prev[0]+INDEL_COST;
-            for (int j = 1; j <= s2l; j++) {
-                int cost = (s1.charAt(a+i-1) == s2.charAt(b+j-1)) ? SAME_COST : SUB_COST;
-                cur[j] = Math.max(Math.max(
-                        prev[j]+INDEL_COST,
-                        cur[j - 1]+INDEL_COST),
-                        prev[j - 1] + cost);
-            }
+        // the rows above the parts are computed in one pass, then the parts are traced
+        // back from the lowest to the highest, each from the cell in which the traceback
+        // of the part below entered the row above it
+        int starts = top;
+        for (int p = 1; p < PARTS; p++)
+            push();
+        for (int p = 1; p < PARTS; p++)
+            forwardRow(a, b, m, partStart(upper, i, p - 1), partRow(starts, upperRow, p - 1),
+                    partStart(upper, i, p), partRow(starts, upperRow, p));
+        for (int p = PARTS - 1; p >= 0; p--) {
+            top = (p == 0) ? starts : partRow(starts, upperRow, p) + width;
+            j = traceRows(a, b, m, partStart(upper, i, p), partRow(starts, upperRow, p),
+                    partStart(upper, i, p + 1), j, out);
         }
-        return cur;
+        top = starts;
+        return j;
     }
 
-    private void needlemanWunsch(int a, int x, int b, int y) {
-        int s1l = x-a;
-        int s2l = y-b;
+    /**
+     * @return the row above part p of the rows from upper to lower
+     */
+    private static int partStart(int upper, int lower, int p) {
+        return upper + (int) ((long) (lower - upper) * p / PARTS);
+    }
 
-        int[][] table = new int[s1l+1][s2l+1];
+    /**
+     * @return the position of the row above part p in the rows
+     */
+    private int partRow(int starts, int upperRow, int p) {
+        return (p == 0) ? upperRow : starts + (p - 1) * width;
+    }
 
-        for (int i = 0; i <= s1l; i++) {
-            table[i][0] = INDEL_COST*i;
-        }
-        for (int j = 0; j <= s2l; j++) {
-            table[0][j] = INDEL_COST*j;
+    /**
+     * Computes a lower row from an upper row, using two rows on top of the stack.
+     * @param upper the upper row
+     * @param upperRow the position of the upper row in the rows
+     * @param lower the lower row
+     * @param lowerRow the position of the lower row in the rows
+     * @return false if no cell of a row can lie on a path with distance at most maxDist
+     */
+    private boolean forwardRow(char[] a, char[] b, int m, int upper, int upperRow, int lower, int lowerRow) {
+        int scratch = push();
+        int other = push();
+        int previous = upperRow;
+        boolean reachable = true;
+        for (int r = upper + 1; r <= lower && reachable; r++) {
+            int next = (r == lower) ? lowerRow : (previous == scratch) ? other : scratch;
+            reachable = computeRow(a, b, m, r, previous, next) <= maxDist;
+            previous = next;
         }
+        top = scratch;
+        return reachable;
+    }
 
-        for (int i = 1; i <= s1l; i++) {
-            for (int j = 1; j <= s2l; j++) {
-                int cost = (s1.charAt(a+i-1) == s2.charAt(b+j-1)) ? SAME_COST : SUB_COST;
-                table[i][j] = Math.max(Math.max(
-                        table[i - 1][j]+INDEL_COST,
-                        table[i][j - 1]+INDEL_COST),
-                        table[i - 1][j - 1] + cost);
+    /**
+     * Computes a row of the table on the diagonals of the band, see {@link PairAligner}.
+     * @param i the row
+     * @param previous the position of the row above in the rows
+     * @param current the position of the row in the rows
+     * @return the lowest distance of a path through this row
+     */
+    private int computeRow(char[] a, char[] b, int m, int i, int previous, int current) {
+        int[] rows = this.rows;
+        for (int k = 0; k < width; k++)
+            rows[current + k] = UNREACHABLE;
+        int best = UNREACHABLE;
+        for (int j = Math.max(0, i + kmin); j <= Math.min(m, i + kmin + width - 1); j++) {
+            int k = j - i - kmin;
+            int value;
+            if (j == 0)
+                value = i;
+            else {
+                int cost = (a[i - 1] == b[j - 1]) ? 0 : 2;
+                int up = (k + 1 < width) ? rows[previous + k + 1] : UNREACHABLE;
+                int left = (k > 0) ? rows[current + k - 1] : UNREACHABLE;
+                value = Math.min(Math.min(up + 1, left + 1), rows[previous + k] + cost);
             }
+            rows[current + k] = value;
+            // the rest of the path needs at least as many steps as the diagonals differ
+            best = Math.min(best, value + Math.abs(delta - (j - i)));
         }
+        return best;
+    }
 
-        int i = table.length-1;
-        int j = table[0].length-1;
+    /**
+     * @return the position of row r in a block whose row above is the upper row
+     */
+    private int row(int block, int upper, int upperRow, int r) {
+        return (r == upper) ? upperRow : block + (r - upper - 1) * width;
+    }
 
-        while (i > 0 && j > 0) {
-            int sub = table[i-1][j-1];
-            int del = table[i-1][j];
-            int ins = table[i][j-1];
-            int max = Math.max(sub, Math.max(del, ins));
+    /**
+     * @param row the position of row i in the rows
+     * @param i the row
+     * @param j the column
+     * @return the value of the cell, or UNREACHABLE if it lies outside the band
+     */
+    private int cell(int row, int i, int j) {
+        int k = j - i - kmin;
+        return (k >= 0 && k < width) ? rows[row + k] : UNREACHABLE;
+    }
 
-            if (max == sub) {
-                from.push(s1.charAt(a+i-1));
-                to.push(s2.charAt(b+j-1));
-                i--;
-                j--;
-            }
-            else if (max == del) {
-                from.push(s1.charAt(a+i-1));
-                to.push('-');
-                i--;
-            }
-            else if (max == ins) {
-                from.push('-');
-                to.push(s2.charAt(b+j-1));
-                j--;
-            }
-        }
+    /**
+     * Reserves a new row on top of the stack.
+     * @return the position of the row
+     */
+    private int push() {
+        int row = top;
+        top += width;
+        if (rows.length < top)
+            rows = Arrays.copyOf(rows, Math.max(top, rows.length*2));
+        return row;
+    }
 
-        while (i > 0) {
-            from.push(s1.charAt(a+i-1));
-            to.push('-');
-            i--;
-        }
+    @Override
+    public char[] getPatternChars() {
+        return forward.chars;
+    }
 
-        while (j > 0) {
-            from.push('-');
-            to.push(s2.charAt(b+j-1));
-            j--;
-        }
+    @Override
+    public int getPatternLength() {
+        return forward.length;
     }
 
-    private static int maxVal(int[] arr, int[] rev) {
-        int max = Integer.MIN_VALUE;
-        int idx = -1;
-        int j = rev.length-1;
-        for (int i = 0; i < arr.length && j >= 0; i++, j--) {
-            int sum = arr[i]+rev[j];
-            if (sum > max) {
-                max = sum;
-                idx = i;
-            }
-        }
-        return idx;
+    @Override
+    public int getPatternTransitions() {
+        return forward.transitions;
     }
 
-    private static int[] reverse(int[] a) {
-        int len = a.length-1;
-        for (int i = 0; i < len/2; i++) {
-            int tmp = a[i];
-            a[i] = a[len-i];
-            a[len-i] = tmp;
-        }
-        return a;
+    @Override
+    public char[] getReversePatternChars() {
+        return reverse.chars;
+    }
+
+    @Override
+    public int getReversePatternLength() {
+        return reverse.length;
+    }
+
+    @Override
+    public int getReversePatternTransitions() {
+        return reverse.transitions;
     }
 }
@@ -0,0 +1,259 @@
+package pattern;
+
+/**
+ * Aligns pairs of tokens exactly like {@link SequenceAlignment#findPattern(String, String, double)},
+ * but without allocating memory per pair: the banded Levenshtein table is kept in a flat
+ * array and the pattern is built in a char array, both of which are reused for the next
+ * pair. The whole band of the table is held in memory, which takes time and memory
+ * proportional to the length of the first word times the width of the band; see
+ * {@link Hirschberg} for long tokens.
+ * An aligner is not thread-safe, every thread needs its own.
+ */
+public class PairAligner implements Aligner {
+
+    // value of cells outside the band of the Levenshtein table
+    private static final int UNREACHABLE = Integer.MAX_VALUE/2;
+
+    // the band of the Levenshtein table, row by row
+    private int[] table;
+    // number of diagonals in the band
+    private int width;
+    // lowest diagonal j-i of the band
+    private int kmin;
+
+    // buffers for tokens given as strings
+    private char[] token1;
+    private char[] token2;
+
+    // the patterns of the last successful alignment in both directions
+    private final PatternBuilder forward;
+    private final PatternBuilder reverse;
+
+    public PairAligner() {
+        table = new int[256];
+        token1 = new char[32];
+        token2 = new char[32];
+        forward = new PatternBuilder();
+        reverse = new PatternBuilder();
+    }
+
+    /**
+     * Aligns two tokens to find a transition pattern between the two, just like
+     * {@link SequenceAlignment#findPattern(String, String, double)}.
+     * @param a first token
+     * @param b second token
+     * @param mustKeep portion of shorter string that must be kept
+     * @return the pattern or an empty string if mustKeep*shorterString.length did not equal
+     * the amount of same char substitutions
+     */
+    @Override
+    public String findPattern(String a, String b, double mustKeep) {
+        token1 = copy(a, token1);
+        token2 = copy(b, token2);
+        if (align(token1, a.indexOf(':'), a.length(), token2, b.indexOf(':'), b.length(), mustKeep))
+            return getPattern();
+        return "";
+    }
+
+    /**
+     * Aligns two tokens to find the transition patterns between the two in both directions,
+     * just like {@link SequenceAlignment#findPatterns(String, String, double)}.
+     * @param a first token
+     * @param b second token
+     * @param mustKeep portion of shorter string that must be kept
+     * @return the pattern from a to b and the pattern from b to a, or an empty array if
+     * mustKeep*shorterString.length did not equal the amount of same char substitutions
+     */
+    @Override
+    public String[] findPatterns(String a, String b, double mustKeep) {
+        token1 = copy(a, token1);
+        token2 = copy(b, token2);
+        if (alignBoth(token1, a.indexOf(':'), a.length(), token2, b.indexOf(':'), b.length(), mustKeep))
+            return new String[] {getPattern(), getReversePattern()};
+        return new String[0];
+    }
+
+    private static char[] copy(String s, char[] buffer) {
+        if (buffer.length < s.length())
+            buffer = new char[Math.max(s.length(), buffer.length*2)];
+        s.getChars(0, s.length(), buffer, 0);
+        return buffer;
+    }
+
+    @Override
+    public boolean align(char[] a, int split1, int end1, char[] b, int split2, int end2, double mustKeep) {
+        forward.clear();
+        reverse.clear();
+        // pairs in which one word contains the other need no table
+        if (forward.buildContained(a, split1, end1, b, split2, end2, mustKeep))
+            return forward.found();
+        return fillBand(a, split1, b, split2, mustKeep)
+                && traceback(a, split1, end1, b, split2, end2, false, mustKeep, forward);
+    }
+
+    /**
+     * Both patterns are traced back through the same table, each with the tie-breaking
+     * of its own direction.
+     */
+    @Override
+    public boolean alignBoth(char[] a, int split1, int end1, char[] b, int split2, int end2, double mustKeep) {
+        forward.clear();
+        reverse.clear();
+        if (forward.buildContained(a, split1, end1, b, split2, end2, mustKeep))
+            return forward.found() && reverse.buildContained(b, split2, end2, a, split1, end1, mustKeep)
+                    && reverse.found();
+        // the table for b and a is the transposed table for a and b, so both directions
+        // are kept or both are rejected
+        return fillBand(a, split1, b, split2, mustKeep)
+                && traceback(a, split1, end1, b, split2, end2, false, mustKeep, forward)
+                && traceback(b, split2, end2, a, split1, end1, true, mustKeep, reverse);
+    }
+
+    /**
+     * Retrieves the pattern between two tokens from the current table.
+     * @param a a buffer containing the first token of the form WORD:POS
+     * @param split1 position of the colon in the first token
+     * @param end1 end of the first token
+     * @param b a buffer containing the second token of the form WORD:POS
+     * @param split2 position of the colon in the second token
+     * @param end2 end of the second token
+     * @param transposed whether the table was computed for b and a instead of a and b
+     * @param mustKeep portion of shorter string that must be kept
+     * @param out the buffer to build the pattern in
+     * @return true if at least mustKeep*shorterString.length characters are same char
+     * substitutions, i.e. if a pattern was found
+     */
+    private boolean traceback(char[] a, int split1, int end1, char[] b, int split2, int end2,
+                              boolean transposed, double mustKeep, PatternBuilder out) {
+        out.start(PatternBuilder.capacity(split1, end1, split2, end2));
+
+        // retrieve pattern (backwards, it is reversed afterwards)
+        for (int i = split1, j = split2; i > 0 || j > 0; ) {
+            int here = cell(i, j, transposed);
+            if (i > 0 && here == cell(i - 1, j, transposed) + 1) {
+                out.delete(a[--i]);
+            } else if (j > 0 && here == cell(i, j - 1, transposed) + 1) {
+                out.insert(b[--j]);
+            } else if (i > 0 && j > 0 && here == cell(i - 1, j - 1, transposed)) {
+                i--;
+                j--;
+                out.match();
+            }
+        }
+        return out.finish(a, split1, end1, b, split2, end2, mustKeep);
+    }
+
+    /**
+     * Computes the Levenshtein table of two strings (with substitutions costing as much as
+     * a deletion plus an insertion) only on the diagonals of the current band; all cells
+     * outside the band are treated as unreachable. Since the values inside the band are
+     * never smaller than the real ones and equal them on every path with distance at most
+     * maxDist, the traceback of such a path is the same as in the full table. The
+     * computation stops early as soon as no cell of a row can lie on a path with distance
+     * at most maxDist.
+     * @param a the first string
+     * @param n the length of the first string
+     * @param b the second string
+     * @param m the length of the second string
+     * @param mustKeep portion of shorter string that must be kept
+     * @return false if the pattern can certainly not be kept
+     */
+    private boolean fillBand(char[] a, int n, char[] b, int m, double mustKeep) {
+        // the distance of the alignment is len1+len2-2*equal, so the number of same
+        // char substitutions needed to keep the pattern bounds the distance
+        int maxDist = n + m - 2*SequenceAlignment.minEqual(Math.min(n, m), mustKeep);
+        int delta = m - n;
+        if (maxDist < Math.abs(delta))
+            return false;
+        // only the diagonals j-i which a path with at most maxDist can pass are computed
+        int slack = (maxDist - Math.abs(delta)) / 2;
+        kmin = Math.min(0, delta) - slack;
+        width = Math.max(0, delta) + slack - kmin + 1;
+
+        int size = (n + 1) * width;
+        if (table.length < size)
+            table = new int[Math.max(size, table.length*2)];
+
+        for (int i = 0; i <= n; i++) {
+            int row = i * width;
+            for (int k = 0; k < width; k++)
+                table[row + k] = UNREACHABLE;
+            // lowest distance of a path through this row
+            int best = UNREACHABLE;
+            for (int j = Math.max(0, i + kmin); j <= Math.min(m, i + kmax()); j++) {
+                int value;
+                if (i == 0)
+                    value = j;
+                else if (j == 0)
+                    value = i;
+                else {
+                    int cost = (a[i - 1] == b[j - 1]) ? 0 : 2;
+                    value = Math.min(Math.min(
+                            cell(i - 1, j) + 1,
+                            cell(i, j - 1) + 1),
+                            cell(i - 1, j - 1) + cost);
+                }
+                table[row + j - i - kmin] = value;
+                // the rest of the path needs at least as many steps as the diagonals differ
+                best = Math.min(best, value + Math.abs(delta - (j - i)));
+            }
+            if (best > maxDist)
+                return false;
+        }
+        return cell(n, m) <= maxDist;
+    }
+
+    private int kmax() {
+        return kmin + width - 1;
+    }
+
+    /**
+     * @param i the row
+     * @param j the column
+     * @return the value of the cell, or UNREACHABLE if it lies outside the band
+     */
+    private int cell(int i, int j) {
+        int k = j - i - kmin;
+        return (k >= 0 && k < width) ? table[i * width + k] : UNREACHABLE;
+    }
+
+    /**
+     * @param i the row
+     * @param j the column
+     * @param transposed whether the cell is addressed in the table for b and a
+     * @return the value of the cell, or UNREACHABLE if it lies outside the band
+     */
+    private int cell(int i, int j, boolean transposed) {
+        return (transposed) ? cell(j, i) : cell(i, j);
+    }
+
+    @Override
+    public char[] getPatternChars() {
+        return forward.chars;
+    }
+
+    @Override
+    public int getPatternLength() {
+        return forward.length;
+    }
+
+    @Override
+    public int getPatternTransitions() {
+        return forward.transitions;
+    }
+
+    @Override
+    public char[] getReversePatternChars() {
+        return reverse.chars;
+    }
+
+    @Override
+    public int getReversePatternLength() {
+        return reverse.length;
+    }
+
+    @Override
+    public int getReversePatternTransitions() {
+        return reverse.transitions;
+    }
+}
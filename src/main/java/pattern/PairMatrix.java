@@ -0,0 +1,334 @@
+package pattern;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * The matrix of word pairs to be aligned, i.e. all pairs of a word from a first
+ * list with a word from a second list, or the upper triangle if both lists are
+ * the same. Per-word data needed to filter pairs, including an index of the
+ * symbols of the words, is computed once on creation.
+ * Optionally, only a uniform sample of the pairs is aligned: every pair is
+ * chosen independently with the same probability, with a random generator per
+ * row, so that the sample only depends on the seed and not on the order in
+ * which rows are aligned.
+ * <p>
+ * Otherwise, words with the same surface form and different POS are grouped: the
+ * pattern between two tokens only depends on their surface forms except for the POS
+ * at its end, so each pair of surface forms is aligned once, in the row of the first
+ * token of one of them, and its patterns are counted for every pair of their tokens
+ * with the POS of that pair. Rows of the other tokens of a group are empty.
+ * <p>
+ * The patterns of a pair are counted in both directions, unless the matrix is
+ * restricted to one of them, which derives the words of one list from those of
+ * the other.
+ */
+class PairMatrix {
+
+    private final List<String> wlist1;
+    private final List<String> wlist2;
+    private final boolean same;
+    // the chars of each word and the position of its colon
+    private final char[][] chars1;
+    private final char[][] chars2;
+    private final int[] splits1;
+    private final int[] splits2;
+    // the sorted symbols of each word, used as symbol histograms
+    private final char[][] symbols1;
+    private final char[][] symbols2;
+    // index to find the partners of a word with enough symbols in common
+    private final SymbolIndex index;
+    // portion of the shorter word that must be kept
+    private final double mustKeep;
+    // probability of a pair to be aligned, its logarithmic complement and the seed for sampling
+    private final double sample;
+    private final double logSkip;
+    private final long seed;
+    // for every word the index of the first word with the same surface form in its list,
+    // and for the first words the indices of all words with this form, null if sampling
+    private final int[] firsts1;
+    private final int[] firsts2;
+    private final int[][] forms1;
+    private final int[][] forms2;
+    // whether the patterns deriving the words of the first list from those of the second
+    // are counted, and those in the other direction
+    private final boolean forward;
+    private final boolean reverse;
+
+    /**
+     * @param wlist1 a list of words of the form WORD:POS
+     * @param wlist2 a list of words of the form WORD:POS
+     * @param same whether both lists are the same, i.e. only the upper triangle is aligned
+     * @param mustKeep portion of the shorter word that must be kept
+     * @param sample probability of a pair to be aligned, 1 to align all pairs
+     * @param seed the seed for sampling pairs
+     */
+    PairMatrix(List<String> wlist1, List<String> wlist2, boolean same, double mustKeep, double sample, long seed) {
+        this(wlist1, wlist2, same, mustKeep, sample, seed, true, true);
+    }
+
+    /**
+     * @param wlist1 a list of words of the form WORD:POS
+     * @param wlist2 a list of words of the form WORD:POS
+     * @param same whether both lists are the same, i.e. only the upper triangle is aligned
+     * @param mustKeep portion of the shorter word that must be kept
+     * @param sample probability of a pair to be aligned, 1 to align all pairs
+     * @param seed the seed for sampling pairs
+     * @param forward whether to count the patterns deriving words of the first list from
+     *                words of the second list
+     * @param reverse whether to count the patterns deriving words of the second list from
+     *                words of the first list
+     */
+    PairMatrix(List<String> wlist1, List<String> wlist2, boolean same, double mustKeep, double sample, long seed,
+               boolean forward, boolean reverse) {
+        this.wlist1 = wlist1;
+        this.wlist2 = wlist2;
+        this.same = same;
+        this.mustKeep = mustKeep;
+        this.sample = sample;
+        this.logSkip = Math.log(1 - sample);
+        this.seed = seed;
+        this.forward = forward;
+        this.reverse = reverse;
+        this.chars1 = chars(wlist1);
+        this.chars2 = (same) ? chars1 : chars(wlist2);
+        this.splits1 = splits(wlist1);
+        this.splits2 = (same) ? splits1 : splits(wlist2);
+        this.symbols1 = sortedSymbols(wlist1);
+        this.symbols2 = (same) ? symbols1 : sortedSymbols(wlist2);
+        this.index = new SymbolIndex(symbols1, symbols2, mustKeep);
+        // a sample of token pairs cannot be drawn per pair of surface forms
+        this.firsts1 = (sample < 1) ? null : firsts(wlist1, splits1);
+        this.firsts2 = (sample < 1 || same) ? firsts1 : firsts(wlist2, splits2);
+        this.forms1 = (sample < 1) ? null : forms(firsts1);
+        this.forms2 = (sample < 1 || same) ? forms1 : forms(firsts2);
+    }
+
+    private static char[][] chars(List<String> wlist) {
+        char[][] chars = new char[wlist.size()][];
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = wlist.get(i).toCharArray();
+        return chars;
+    }
+
+    private static int[] splits(List<String> wlist) {
+        int[] splits = new int[wlist.size()];
+        for (int i = 0; i < splits.length; i++)
+            splits[i] = wlist.get(i).indexOf(':');
+        return splits;
+    }
+
+    private static int[] firsts(List<String> wlist, int[] splits) {
+        TObjectIntMap<String> first = new TObjectIntHashMap<>(wlist.size(), 0.5f, -1);
+        int[] firsts = new int[wlist.size()];
+        for (int i = 0; i < firsts.length; i++) {
+            int f = first.putIfAbsent(wlist.get(i).substring(0, splits[i]), i);
+            firsts[i] = (f < 0) ? i : f;
+        }
+        return firsts;
+    }
+
+    private static int[][] forms(int[] firsts) {
+        int[] sizes = new int[firsts.length];
+        for (int first : firsts)
+            sizes[first]++;
+        int[][] forms = new int[firsts.length][];
+        for (int i = 0; i < firsts.length; i++) {
+            int first = firsts[i];
+            if (forms[first] == null)
+                forms[first] = new int[sizes[first]];
+            forms[first][forms[first].length - sizes[first]--] = i;
+        }
+        return forms;
+    }
+
+    private static char[][] sortedSymbols(List<String> wlist) {
+        char[][] symbols = new char[wlist.size()][];
+        for (int i = 0; i < symbols.length; i++)
+            symbols[i] = SequenceAlignment.sortedSymbols(wlist.get(i));
+        return symbols;
+    }
+
+    /**
+     * @return the number of rows of the matrix
+     */
+    int rows() {
+        return wlist1.size();
+    }
+
+    /**
+     * @param from first row (inclusive)
+     * @param to last row (exclusive)
+     * @return the number of pairs in the given rows
+     */
+    long pairs(int from, int to) {
+        long n = to - from;
+        if (same)
+            // rows i have size-i-1 pairs each
+            return n * wlist2.size() - (n * (from + to - 1)) / 2 - n;
+        return n * wlist2.size();
+    }
+
+    /**
+     * Splits the rows into slices with about the same number of pairs.
+     * @param shard a slice, from 0 to shards, where shards gives the end of the last slice
+     * @param shards the number of slices
+     * @return the first row of the slice
+     */
+    int shardStart(int shard, int shards) {
+        long target = (long) (pairs(0, rows()) * ((double) shard / shards));
+        // first row before which there are at least target pairs
+        int low = 0;
+        int high = rows();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (pairs(0, mid) < target)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return (shard == shards) ? rows() : low;
+    }
+
+    /**
+     * Aligns the i-th word of the first list with all its partners in the second
+     * list and counts the patterns found. Only the partners found by the symbol
+     * index are considered, and pairs which cannot keep enough of the shorter word
+     * are filtered out before the alignment. If sampling, pairs which are not in
+     * the sample are skipped without being looked at. Otherwise, only the first
+     * word of each surface form is aligned, with the first words of the surface
+     * forms of its partners, for all the words with these forms.
+     * @param i the row
+     * @param aligner the aligner to use
+     * @param patternCounter the counter to count the patterns in
+     * @param stats the statistics to update
+     */
+    void alignRow(int i, Aligner aligner, PatternCounter patternCounter, AlignmentStats stats) {
+        if (sample >= 1 && firsts1[i] != i)
+            return;
+        int from = (same) ? i+1 : 0;
+        SymbolIndex.Probe candidates = index.candidates(i, from);
+        if (sample < 1) {
+            SplittableRandom random = new SplittableRandom(seed + i * 0x9E3779B97F4A7C15L);
+            for (int j = from + skip(random); j < wlist2.size(); j += 1 + skip(random))
+                if (candidates.contains(j))
+                    alignPair(i, j, aligner, patternCounter, stats);
+        }
+        else {
+            // the other words with the same form, whose pairs are all in this row
+            if (same && forms1[i].length > 1)
+                alignPair(i, forms1[i][1], aligner, patternCounter, stats);
+            for (int k = 0; k < candidates.size(); k++) {
+                int j = candidates.get(k);
+                if (firsts2[j] == j)
+                    alignPair(i, j, aligner, patternCounter, stats);
+            }
+        }
+    }
+
+    private void alignPair(int i, int j, Aligner aligner, PatternCounter patternCounter, AlignmentStats stats) {
+        // the other words of two grouped forms may differ even if their first words are the same
+        boolean grouped = sample >= 1 && (forms1[i].length > 1 || forms2[firsts2[j]].length > 1);
+        if (!grouped && wlist1.get(i).equals(wlist2.get(j)))
+            return;
+        if (!SequenceAlignment.mayKeep(symbols1[i], symbols2[j], mustKeep)) {
+            stats.filtered++;
+            return;
+        }
+        // pair words
+        stats.aligned++;
+        char[] c1 = chars1[i];
+        char[] c2 = chars2[j];
+        // if a valid pattern was found, store it in both directions
+        if (aligner.alignBoth(c1, splits1[i], c1.length, c2, splits2[j], c2.length, mustKeep)) {
+            stats.kept++;
+            if (!grouped) {
+                if (forward)
+                    patternCounter.add(aligner.getPatternChars(), aligner.getPatternLength(),
+                            aligner.getPatternTransitions(), 1);
+                if (reverse)
+                    patternCounter.add(aligner.getReversePatternChars(), aligner.getReversePatternLength(),
+                            aligner.getReversePatternTransitions(), 1);
+            }
+            else
+                countForms(i, j, aligner, patternCounter);
+        }
+    }
+
+    /**
+     * Counts the patterns of the last alignment, between the first words of two surface
+     * forms or two words of the same form, for every pair of words with these forms.
+     * @param i the first word of the form in the first list
+     * @param j a word of the form in the second list
+     * @param aligner the aligner which aligned the words
+     * @param patternCounter the counter to count the patterns in
+     */
+    private void countForms(int i, int j, Aligner aligner, PatternCounter patternCounter) {
+        int[] words1 = forms1[i];
+        int[] words2 = forms2[firsts2[j]];
+        // pairs of words with the same form are in the upper triangle
+        boolean triangle = same && firsts2[j] == i;
+        // the patterns without their POS, which is replaced for each pair of words
+        int start = 4*aligner.getPatternTransitions();
+        int reverseStart = 4*aligner.getReversePatternTransitions();
+        int posLength = maxPOSLength(words1, chars1, splits1) + maxPOSLength(words2, chars2, splits2) + 1;
+        char[] pattern = Arrays.copyOf(aligner.getPatternChars(), start + posLength);
+        char[] reversePattern = Arrays.copyOf(aligner.getReversePatternChars(), reverseStart + posLength);
+        for (int x = 0; x < words1.length; x++) {
+            for (int y = (triangle) ? x+1 : 0; y < words2.length; y++) {
+                int p = words1[x];
+                int q = words2[y];
+                if (wlist1.get(p).equals(wlist2.get(q)))
+                    continue;
+                if (forward)
+                    patternCounter.add(pattern, appendPOS(pattern, start, chars2[q], splits2[q],
+                            chars1[p], splits1[p]), start/4, 1);
+                if (reverse)
+                    patternCounter.add(reversePattern, appendPOS(reversePattern, reverseStart, chars1[p], splits1[p],
+                            chars2[q], splits2[q]), reverseStart/4, 1);
+            }
+        }
+    }
+
+    private static int maxPOSLength(int[] words, char[][] chars, int[] splits) {
+        int max = 0;
+        for (int w : words)
+            max = Math.max(max, chars[w].length - splits[w] - 1);
+        return max;
+    }
+
+    /**
+     * Writes the POS transition of a pattern, see {@link PatternBuilder}.
+     * @param pattern the pattern, whose symbol transitions end before start
+     * @param start the position after the symbol transitions and their trailing space
+     * @param b the second token
+     * @param split2 position of the colon in the second token
+     * @param a the first token
+     * @param split1 position of the colon in the first token
+     * @return the length of the pattern
+     */
+    private static int appendPOS(char[] pattern, int start, char[] b, int split2, char[] a, int split1) {
+        int length = start;
+        for (int x = split2 + 1; x < b.length; x++)
+            pattern[length++] = b[x];
+        pattern[length++] = '/';
+        for (int x = split1 + 1; x < a.length; x++)
+            pattern[length++] = a[x];
+        return length;
+    }
+
+    /**
+     * Draws the number of pairs to skip before the next pair in the sample, which
+     * follows a geometric distribution.
+     * @param random the random generator of the row
+     * @return the number of pairs to skip
+     */
+    private int skip(SplittableRandom random) {
+        double skip = Math.floor(Math.log(1 - random.nextDouble()) / logSkip);
+        return (int) Math.min(skip, wlist2.size());
+    }
+}
@@ -0,0 +1,180 @@
+package pattern;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Aligns all pairs of a pair matrix on a fork-join pool. The rows of the matrix
+ * are split recursively into ranges with the same number of pairs, so that the
+ * shrinking rows of a triangle are balanced as well as the rows of a full matrix.
+ * Every worker thread counts into its own counter, and the counters are merged
+ * once all pairs have been aligned. The pool and the workers can be reused for many
+ * ranges of rows, e.g. the batches between checkpoints, and the pool is shut down by
+ * {@link #close()}.
+ */
+class ParallelAlignment {
+
+    // number of leaf tasks per thread, more tasks allow for better work stealing
+    private static final int TASKS_PER_THREAD = 16;
+
+    private final PairMatrix matrix;
+    private final AlignmentOptions options;
+    private final ForkJoinPool pool;
+
+    // the private counters and statistics of all workers
+    private final List<Worker> workers;
+    private final ThreadLocal<Worker> worker;
+
+    /**
+     * Creates the pool with as many threads as given by the options. The workers are
+     * created when their threads align their first pairs.
+     * @param matrix the pairs to align
+     * @param options the number of threads to use and the counting mode
+     */
+    ParallelAlignment(PairMatrix matrix, AlignmentOptions options) {
+        this.matrix = matrix;
+        this.options = options;
+        this.pool = new ForkJoinPool(options.getThreads());
+        this.workers = new ArrayList<>();
+        this.worker = ThreadLocal.withInitial(() -> {
+            Worker w = new Worker(options.newAligner());
+            synchronized (workers) {
+                workers.add(w);
+            }
+            return w;
+        });
+    }
+
+    /**
+     * Aligns all pairs of the matrix and counts the patterns found.
+     * @param matrix the pairs to align
+     * @param options the number of threads to use and the counting mode
+     * @param stats the statistics to update
+     * @return a counter with the patterns and their frequencies, without any cleanup
+     */
+    static PatternCounter align(PairMatrix matrix, AlignmentOptions options, AlignmentStats stats) {
+        return align(matrix, 0, matrix.rows(), options, stats);
+    }
+
+    /**
+     * Aligns all pairs in some rows of the matrix and counts the patterns found.
+     * @param matrix the pairs to align
+     * @param from first row (inclusive)
+     * @param to last row (exclusive)
+     * @param options the number of threads to use and the counting mode
+     * @param stats the statistics to update
+     * @return a counter with the patterns and their frequencies, without any cleanup
+     */
+    static PatternCounter align(PairMatrix matrix, int from, int to, AlignmentOptions options, AlignmentStats stats) {
+        ParallelAlignment alignment = new ParallelAlignment(matrix, options);
+        try {
+            return alignment.align(from, to, stats);
+        }
+        finally {
+            alignment.close();
+        }
+    }
+
+    /**
+     * Aligns all pairs in some rows of the matrix on the pool of this alignment and
+     * counts the patterns found.
+     * @param from first row (inclusive)
+     * @param to last row (exclusive)
+     * @param stats the statistics to update
+     * @return a counter with the patterns and their frequencies, without any cleanup
+     */
+    PatternCounter align(int from, int to, AlignmentStats stats) {
+        long grain = Math.max(1, matrix.pairs(from, to) / ((long) options.getThreads() * TASKS_PER_THREAD));
+        pool.invoke(new RowRange(from, to, grain));
+        return merge(stats);
+    }
+
+    /**
+     * Shuts the pool down.
+     */
+    void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * Merges the counters of all workers into the largest one. The workers start with
+     * new counters and statistics for the next rows.
+     * @param stats the statistics to add the worker statistics to
+     * @return the merged counter
+     */
+    private PatternCounter merge(AlignmentStats stats) {
+        PatternCounter result = null;
+        for (Worker w : workers) {
+            stats.add(w.stats);
+            w.stats = new AlignmentStats();
+            if (w.counter != null && (result == null || w.counter.size() > result.size()))
+                result = w.counter;
+        }
+        for (Worker w : workers) {
+            if (w.counter != null && w.counter != result)
+                result.addAll(w.counter);
+            w.counter = null;
+        }
+        return (result == null) ? options.newCounter() : result;
+    }
+
+    /**
+     * The private state of a worker thread. The counter is created when the worker
+     * aligns its first pairs after a merge.
+     */
+    private static class Worker {
+        private PatternCounter counter;
+        private AlignmentStats stats = new AlignmentStats();
+        private final Aligner aligner;
+
+        Worker(Aligner aligner) {
+            this.aligner = aligner;
+        }
+    }
+
+    /**
+     * A range of rows of the pair matrix.
+     */
+    private class RowRange extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        // minimum number of pairs for a task to be split
+        private final long grain;
+
+        RowRange(int from, int to, long grain) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            long pairs = matrix.pairs(from, to);
+            if (to - from > 1 && pairs > grain) {
+                // find the row which splits the range into halves with the same number of pairs
+                int lo = from + 1;
+                int hi = to - 1;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (matrix.pairs(from, mid) * 2 < pairs)
+                        lo = mid + 1;
+                    else
+                        hi = mid;
+                }
+                invokeAll(new RowRange(from, lo, grain), new RowRange(lo, to, grain));
+            }
+            else {
+                Worker w = worker.get();
+                if (w.counter == null)
+                    w.counter = options.newCounter();
+                for (int i = from; i < to; i++)
+                    matrix.alignRow(i, w.aligner, w.counter, w.stats);
+            }
+        }
+    }
+}
@@ -6,15 +6,74 @@ import gnu.trove.map.TObjectIntMap;
 import java.util.HashSet;
 import java.util.Set;
 
+/**
+ * A labelled pattern with its frequency. The pattern string, transitions of the form
+ * IN/OUT separated by spaces and followed by the POS transition FROM/TO, is parsed once
+ * when the pattern is created, so that transducers, rankers and the cluster builder
+ * can work on its transitions and statistics without splitting and counting in the
+ * string again.
+ */
 public class Pattern implements Comparable<Pattern> {
-    private String pattern;
-    private int freq;
-    private String label;
+
+    // the symbol of a transition that keeps any sequence of symbols
+    public static final char ANY = '.';
+    // the symbol of the empty side of an insertion or a deletion
+    public static final char EMPTY = '-';
+
+    private final String pattern;
+    private final int freq;
+    private final String label;
+
+    // the input and output symbol of every transition, at 2t and 2t+1
+    private final char[] transitions;
+    private final String fromPOS;
+    private final String toPOS;
+    // statistics of the transitions
+    private final int nonIdentities;
+    private final int indels;
+    private final int lengthDelta;
+    // the hash, which depends neither on the frequency nor on the identity of the object
+    private final int hash;
 
     public Pattern(String pattern, int freq, String label) {
         this.pattern = pattern;
         this.freq = freq;
         this.label = label;
+
+        int posStart = pattern.lastIndexOf(' ') + 1;
+        int split = pattern.indexOf('/', posStart);
+        if (split < 0)
+            throw new IllegalArgumentException("Pattern without POS transition: " + pattern);
+        this.fromPOS = pattern.substring(posStart, split);
+        this.toPOS = pattern.substring(split + 1);
+
+        // every transition has one symbol on each side, so it takes 4 chars with its space
+        int size = posStart / 4;
+        this.transitions = new char[2*size];
+        int nonIdentities = 0;
+        int indels = 0;
+        int lengthDelta = 0;
+        for (int t = 0; t < size; t++) {
+            char in = pattern.charAt(4*t);
+            char out = pattern.charAt(4*t + 2);
+            if (pattern.charAt(4*t + 1) != '/' || pattern.charAt(4*t + 3) != ' ')
+                throw new IllegalArgumentException("Malformed transition " + (t + 1) + " in pattern: " + pattern);
+            transitions[2*t] = in;
+            transitions[2*t + 1] = out;
+            if (in != ANY)
+                nonIdentities++;
+            if (in == EMPTY) {
+                indels++;
+                lengthDelta++;
+            } else if (out == EMPTY) {
+                indels++;
+                lengthDelta--;
+            }
+        }
+        this.nonIdentities = nonIdentities;
+        this.indels = indels;
+        this.lengthDelta = lengthDelta;
+        this.hash = 31*pattern.hashCode() + label.hashCode();
     }
 
     public String getPattern() {
@@ -29,11 +88,73 @@ public class Pattern implements Comparable<Pattern> {
         return label;
     }
 
+    /**
+     * @return the number of transitions, without the POS transition
+     */
+    public int size() {
+        return transitions.length / 2;
+    }
+
+    /**
+     * @param t a transition
+     * @return its input symbol, {@link #ANY} or {@link #EMPTY}
+     */
+    public char getInput(int t) {
+        return transitions[2*t];
+    }
+
+    /**
+     * @param t a transition
+     * @return its output symbol, {@link #ANY} or {@link #EMPTY}
+     */
+    public char getOutput(int t) {
+        return transitions[2*t + 1];
+    }
+
+    /**
+     * @param t a transition
+     * @return true if the transition keeps any sequence of symbols
+     */
+    public boolean isAny(int t) {
+        return transitions[2*t] == ANY;
+    }
+
+    public String getFromPOS() {
+        return fromPOS;
+    }
+
+    public String getToPOS() {
+        return toPOS;
+    }
+
+    /**
+     * @return the number of transitions that change the word, i.e. that are not {@link #ANY}
+     */
+    public int getNonIdentityCount() {
+        return nonIdentities;
+    }
+
+    /**
+     * @return the number of insertions and deletions
+     */
+    public int getIndelCount() {
+        return indels;
+    }
+
+    /**
+     * @return the number of symbols by which the output is longer than the input,
+     * negative if it is shorter
+     */
+    public int getLengthDelta() {
+        return lengthDelta;
+    }
+
     @Override
     public boolean equals(Object other) {
         if (other instanceof Pattern) {
             Pattern otherPattern = (Pattern) other;
-            return this.freq == otherPattern.freq && this.label.equals(otherPattern.label) && this.pattern.equals(otherPattern.pattern);
+            return this.hash == otherPattern.hash && this.freq == otherPattern.freq
+                    && this.label.equals(otherPattern.label) && this.pattern.equals(otherPattern.pattern);
         }
         return false;
     }
@@ -55,7 +176,7 @@ public class Pattern implements Comparable<Pattern> {
 
     @Override
     public int hashCode() {
-        return (pattern.hashCode() + label.hashCode()) * freq;
+        return hash;
     }
 
     @Override
@@ -0,0 +1,211 @@
+package pattern;
+
+/**
+ * A reusable buffer in which an {@link Aligner} builds a pattern from the steps of
+ * an alignment, which are given backwards, from the ends of both words to their
+ * starts. A deletion directly followed by an insertion becomes a substitution, and
+ * runs of same char substitutions become a single "./.". The pattern is reversed
+ * and completed with the POS transition by {@link #finish}.
+ * Pairs in which one word is a subsequence of the other, such as pure affixations, can
+ * be built directly with {@link #buildContained} instead.
+ */
+class PatternBuilder {
+
+    char[] chars = new char[64];
+    int length;
+    // number of symbol transitions before the POS transition
+    int transitions;
+
+    // controls if a deletion occurs immediately before an insertion
+    // which would then be converted to a substitution
+    private boolean justDeleted;
+    // flag to be used when the chars on input and on output tapes are the same
+    private boolean justAppended;
+    // number of same char substitutions
+    private int equal;
+    // the positions of the symbols of the shorter word in the longer one
+    private int[] positions = new int[32];
+
+    /**
+     * Clears the buffer, e.g. if no pattern is found.
+     */
+    void clear() {
+        length = 0;
+    }
+
+    /**
+     * Starts a new pattern.
+     * @param capacity the maximum length of the pattern
+     */
+    void start(int capacity) {
+        if (chars.length < capacity)
+            chars = new char[Math.max(capacity, chars.length*2)];
+        length = 0;
+        justDeleted = false;
+        justAppended = false;
+        equal = 0;
+    }
+
+    /**
+     * Adds the deletion of a symbol of the first word.
+     */
+    void delete(char c) {
+        chars[length++] = c;
+        chars[length++] = '/';
+        chars[length++] = '-';
+        chars[length++] = ' ';
+        justDeleted = true;
+        justAppended = false;
+    }
+
+    /**
+     * Adds the insertion of a symbol of the second word.
+     */
+    void insert(char c) {
+        if (justDeleted) {
+            // turn "x/- " into "x/c "
+            chars[length - 2] = c;
+        } else {
+            chars[length++] = '-';
+            chars[length++] = '/';
+            chars[length++] = c;
+            chars[length++] = ' ';
+        }
+        justDeleted = false;
+        justAppended = false;
+    }
+
+    /**
+     * Adds a same char substitution.
+     */
+    void match() {
+        if (!justAppended) {
+            chars[length++] = '.';
+            chars[length++] = '/';
+            chars[length++] = '.';
+            chars[length++] = ' ';
+        }
+        justDeleted = false;
+        justAppended = true;
+        equal++;
+    }
+
+    /**
+     * Completes the pattern if enough of the shorter word was kept.
+     * @param a a buffer containing the first token of the form WORD:POS
+     * @param split1 position of the colon in the first token
+     * @param end1 end of the first token
+     * @param b a buffer containing the second token of the form WORD:POS
+     * @param split2 position of the colon in the second token
+     * @param end2 end of the second token
+     * @param mustKeep portion of shorter string that must be kept
+     * @return true if at least mustKeep*shorterString.length characters are same char
+     * substitutions, i.e. if a pattern was found
+     */
+    boolean finish(char[] a, int split1, int end1, char[] b, int split2, int end2, double mustKeep) {
+        // only keep pattern if at least mustKeep of the shorter string matches the other string
+        if (equal > Math.min(split1, split2)*mustKeep) {
+            // drop the trailing space and reverse
+            length--;
+            for (int x = 0, y = length - 1; x < y; x++, y--) {
+                char tmp = chars[x];
+                chars[x] = chars[y];
+                chars[y] = tmp;
+            }
+            transitions = (length + 1) / 4;
+            // append POS
+            chars[length++] = ' ';
+            for (int x = split2 + 1; x < end2; x++)
+                chars[length++] = b[x];
+            chars[length++] = '/';
+            for (int x = split1 + 1; x < end1; x++)
+                chars[length++] = a[x];
+            return true;
+        }
+        length = 0;
+        return false;
+    }
+
+    /**
+     * Builds the pattern between two tokens without an alignment table if the word of one
+     * token consists of a prefix and a suffix of the other, i.e. if the other word only
+     * adds a prefix, a suffix or an infix, which most other pairs fail after comparing a
+     * few symbols at both ends. The shorter word is then a subsequence of the longer one,
+     * so all of its symbols are same char substitutions in an optimal alignment, and
+     * tracing back from the ends, which prefers deletions and insertions over same char
+     * substitutions, puts off each of them for as long as the symbols before it still fit,
+     * i.e. it aligns the shorter word at its leftmost embedding into the longer one. This
+     * takes time linear in the length of the words.
+     * @param a a buffer containing the first token of the form WORD:POS
+     * @param split1 position of the colon in the first token
+     * @param end1 end of the first token
+     * @param b a buffer containing the second token of the form WORD:POS
+     * @param split2 position of the colon in the second token
+     * @param end2 end of the second token
+     * @param mustKeep portion of shorter string that must be kept
+     * @return false if the pair is no such affixation, true if the pattern
+     * was built, in which case {@link #found()} tells whether it is kept
+     */
+    boolean buildContained(char[] a, int split1, int end1, char[] b, int split2, int end2, double mustKeep) {
+        boolean inserting = split1 <= split2;
+        char[] shorter = (inserting) ? a : b;
+        char[] longer = (inserting) ? b : a;
+        int n = Math.min(split1, split2);
+        int m = Math.max(split1, split2);
+        // the shorter word must be split into a common prefix and a common suffix
+        int prefix = 0;
+        while (prefix < n && shorter[prefix] == longer[prefix])
+            prefix++;
+        int suffix = 0;
+        while (prefix + suffix < n && shorter[n - 1 - suffix] == longer[m - 1 - suffix])
+            suffix++;
+        if (prefix + suffix < n)
+            return false;
+        // leftmost embedding of the shorter word, which may differ from the split
+        if (positions.length < n)
+            positions = new int[Math.max(n, positions.length*2)];
+        for (int x = 0, y = 0; x < n; x++, y++) {
+            while (longer[y] != shorter[x])
+                y++;
+            positions[x] = y;
+        }
+
+        start(capacity(split1, end1, split2, end2));
+        // retrieve pattern (backwards, it is reversed afterwards)
+        for (int x = n, y = m - 1; y >= 0; y--) {
+            if (x > 0 && positions[x - 1] == y) {
+                x--;
+                match();
+            } else if (inserting) {
+                insert(b[y]);
+            } else {
+                delete(a[y]);
+            }
+        }
+        finish(a, split1, end1, b, split2, end2, mustKeep);
+        return true;
+    }
+
+    /**
+     * @return true if the last pattern was kept
+     */
+    boolean found() {
+        return length > 0;
+    }
+
+    /**
+     * @param split1 position of the colon in the first token
+     * @param end1 end of the first token
+     * @param split2 position of the colon in the second token
+     * @param end2 end of the second token
+     * @return the maximum length of a pattern between the tokens
+     */
+    static int capacity(int split1, int end1, int split2, int end2) {
+        return 4*(split1 + split2) + (end1 - split1) + (end2 - split2) + 2;
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+}
@@ -0,0 +1,56 @@
+package pattern;
+
+/**
+ * A data structure that counts the patterns found during alignment. Patterns are
+ * passed in the encoding of {@link PatternTable}.
+ */
+interface PatternCounter {
+
+    /**
+     * Adds a frequency to a pattern.
+     * @param pattern a buffer containing the pattern
+     * @param length the length of the pattern
+     * @param transitions the number of symbol transitions before the POS transition
+     * @param freq the frequency to add
+     */
+    void add(char[] pattern, int length, int transitions, int freq);
+
+    /**
+     * Adds a frequency to an encoded pattern.
+     * @param encoded a buffer containing the encoded pattern
+     * @param from start of the encoded pattern
+     * @param length length of the encoded pattern
+     * @param freq the frequency to add
+     */
+    void addEncoded(char[] encoded, int from, int length, int freq);
+
+    /**
+     * Adds all counts of another counter to this one.
+     * @param other the other counter
+     */
+    default void addAll(PatternCounter other) {
+        other.addTo(this);
+    }
+
+    /**
+     * Adds all counts of this counter to another counter.
+     * @param target the other counter
+     */
+    void addTo(PatternCounter target);
+
+    /**
+     * @return the number of patterns currently counted
+     */
+    int size();
+
+    /**
+     * @return an upper bound for how much any frequency may fall short of the true
+     * frequency, 0 for exact counters
+     */
+    long maxError();
+
+    /**
+     * @return a table with all counted patterns
+     */
+    PatternTable toTable();
+}
@@ -3,40 +3,373 @@ package pattern;
 import gnu.trove.iterator.TObjectIntIterator;
 import gnu.trove.map.TObjectIntMap;
 import gnu.trove.map.hash.TObjectIntHashMap;
-import util.StringUtils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class PatternRanker {
 
-    public static TObjectIntMap<String> rankPatterns(TObjectIntMap<String> patternFrequencies){
-        // temporary map with weighted frequencies
-        TObjectIntMap<String> weightedFrequencies = new TObjectIntHashMap<>();
-        // iterator over frequency map
-        TObjectIntIterator<String> iter = patternFrequencies.iterator();
+    // patterns whose weighted frequency is below this multiple of the minimum frequency are removed
+    private static final int THRESHOLD = 5;
+    // number of lines of a pattern file that are weighed in one go
+    private static final int CHUNK = 1 << 16;
+    // maximum number of lines weighed by one task
+    private static final int GRAIN = 1 << 11;
+    // weight of lines without a pattern, which never reaches the threshold
+    private static final int NO_WEIGHT = Integer.MIN_VALUE;
+    // maximum number of ranked patterns that are sorted in memory before they are spilled to a run
+    private static final int RUN_SIZE = 1 << 18;
+
+    // the order of the output, by weighted frequency (descending), the earlier pattern first
+    // if two are weighted the same
+    private static final Comparator<Entry> RANKING =
+            Comparator.comparingInt((Entry e) -> e.weight).reversed().thenComparingLong(e -> e.seq);
+
+    /**
+     * Weighs the patterns and removes those whose weighted frequency is below the
+     * threshold.
+     * @param patternFrequencies the patterns with their frequencies
+     * @return the remaining patterns with their weighted frequencies
+     */
+    public static TObjectIntMap<String> rankPatterns(TObjectIntMap<String> patternFrequencies) {
         // minimum frequency
         int min = Integer.MAX_VALUE;
-
-        while (iter.hasNext()) {
+        for (TObjectIntIterator<String> iter = patternFrequencies.iterator(); iter.hasNext(); ) {
             iter.advance();
-            String pattern = iter.key();
-            // count number of non-identity transitions
-            int noniden = (StringUtils.count(pattern, '/')-1 - StringUtils.count(pattern, '.')/2);
-            // add number of insertions/deletions (affixes are weighted higher because they are a clearer case)
-            int weight = noniden+ StringUtils.count(pattern, '-');
-            // if only identity freq*10, else freq*weight
-            int weightedFrequency = (noniden == 0) ? iter.value() * 10 : iter.value() * weight;
-            // update minimum frequency
             if (iter.value() < min) min = iter.value();
-            // put patterns
-            weightedFrequencies.put(pattern, weightedFrequency);
         }
-
         // compute threshold
-        double freqThreshold = min*5;
-        // remove patterns below threshold
-        for (Object pattern : weightedFrequencies.keys())
-            if (weightedFrequencies.get(pattern) < freqThreshold)
-                weightedFrequencies.remove(pattern);
+        double freqThreshold = (double) min*THRESHOLD;
 
+        // map with weighted frequencies, only patterns above the threshold are put
+        TObjectIntMap<String> weightedFrequencies = new TObjectIntHashMap<>();
+        for (TObjectIntIterator<String> iter = patternFrequencies.iterator(); iter.hasNext(); ) {
+            iter.advance();
+            int weightedFrequency = weigh(new Pattern(iter.key(), iter.value(), ""));
+            if (weightedFrequency < freqThreshold)
+                continue;
+            weightedFrequencies.put(iter.key(), weightedFrequency);
+        }
         return weightedFrequencies;
     }
+
+    /**
+     * Ranks the patterns of a pattern file like {@link #rankPatterns(TObjectIntMap)},
+     * but without reading the file into memory. The file is either a text file or a
+     * {@link PatternStore}, which is mapped into memory. A first pass over the file finds the
+     * minimum frequency. A second pass reads the file in chunks of lines and weighs the
+     * lines of each chunk on a fork-join pool. The patterns that reach the threshold are
+     * written sorted by weighted frequency (descending), the earlier pattern first if two
+     * are weighted the same, and labelled in this order. They are sorted in runs of
+     * RUN_SIZE patterns, which are spilled to temporary files and merged at the end.
+     * If a limit is given, only a heap with the best patterns so far is kept instead.
+     * @param infile the pattern file in the format frequency -tabstop- pattern, possibly
+     *               followed by more columns
+     * @param outfile the output file in the format label -tabstop- weighted frequency
+     *                -tabstop- pattern
+     * @param limit the highest number of patterns to keep, those with the highest weighted
+     *              frequencies, or 0 to keep all
+     * @param threads the number of threads that weigh the patterns
+     */
+    public static void rankPatterns(String infile, String outfile, int limit, int threads) {
+        // a pattern store is mapped, a text file is read twice
+        PatternStore store = null;
+        // minimum frequency
+        int min = Integer.MAX_VALUE;
+        try {
+            if (PatternStore.isStore(infile)) {
+                store = PatternStore.open(infile);
+                for (int i = 0; i < store.size(); i++)
+                    min = Math.min(min, store.getFreq(i));
+            }
+            else {
+                try (BufferedReader read = new BufferedReader(new InputStreamReader(new FileInputStream(new File(infile)), "UTF-8"))) {
+                    for (String line = read.readLine(); line != null; line = read.readLine()) {
+                        int tab = line.indexOf('\t');
+                        if (tab > 0)
+                            min = Math.min(min, Integer.parseInt(line.substring(0, tab)));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        // compute threshold
+        double freqThreshold = (double) min*THRESHOLD;
+
+        String[] lines = new String[CHUNK];
+        String[] patterns = new String[CHUNK];
+        int[] weights = new int[CHUNK];
+        TopPatterns top = (limit > 0) ? new TopPatterns(limit) : null;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (BufferedReader read = (store != null) ? null
+                    : new BufferedReader(new InputStreamReader(new FileInputStream(new File(infile)), "UTF-8"));
+             SortedPatterns sorted = (top != null) ? null : new SortedPatterns();
+             PrintWriter writ = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(outfile)), Charset.forName("UTF-8")))) {
+            long seq = 0;
+            for (int base = 0, n = chunk(read, lines, store, base); n > 0; base += n, n = chunk(read, lines, store, base)) {
+                pool.invoke(new Weighing(lines, store, base, patterns, weights, 0, n));
+                for (int k = 0; k < n; k++, seq++) {
+                    if (weights[k] < freqThreshold)
+                        continue;
+                    if (top != null)
+                        top.offer(patterns[k], weights[k], seq);
+                    else
+                        sorted.add(new Entry(patterns[k], weights[k], seq));
+                }
+            }
+            if (top != null) {
+                int label = 0;
+                for (Entry entry : top.sorted())
+                    writ.println("pattern" + (label++) + "\t" + entry.weight + "\t" + entry.pattern);
+            }
+            else
+                sorted.writeTo(writ);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @param pattern a pattern with its frequency
+     * @return the weighted frequency of the pattern
+     */
+    static int weigh(Pattern pattern) {
+        // count number of non-identity transitions
+        int noniden = pattern.getNonIdentityCount();
+        // add number of insertions/deletions (affixes are weighted higher because they are a clearer case)
+        int weight = noniden + pattern.getIndelCount();
+        // if only identity freq*10, else freq*weight
+        return (noniden == 0) ? pattern.getFreq() * 10 : pattern.getFreq() * weight;
+    }
+
+    /**
+     * Reads the next lines of a text file, or finds the size of the next chunk of a store.
+     * @param read the reader over the text file
+     * @param lines the array to fill
+     * @param store the pattern store, or null if the patterns are read from the text file
+     * @param base the index of the first pattern of the chunk
+     * @return the number of lines or patterns in the chunk, 0 at the end of the file
+     */
+    private static int chunk(BufferedReader read, String[] lines, PatternStore store, int base) throws IOException {
+        if (store != null)
+            return Math.min(lines.length, store.size() - base);
+        int n = 0;
+        for (String line; n < lines.length && (line = read.readLine()) != null; )
+            lines[n++] = line;
+        return n;
+    }
+
+    /**
+     * Weighs a range of the lines of a chunk, or of the patterns of a chunk of a pattern
+     * store, split recursively into ranges of at most GRAIN patterns.
+     */
+    private static class Weighing extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String[] lines;
+        private final PatternStore store;
+        // the index of the first pattern of the chunk in the store
+        private final int base;
+        private final String[] patterns;
+        private final int[] weights;
+        private final int from;
+        private final int to;
+
+        Weighing(String[] lines, PatternStore store, int base, String[] patterns, int[] weights, int from, int to) {
+            this.lines = lines;
+            this.store = store;
+            this.base = base;
+            this.patterns = patterns;
+            this.weights = weights;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > GRAIN) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Weighing(lines, store, base, patterns, weights, from, mid),
+                        new Weighing(lines, store, base, patterns, weights, mid, to));
+                return;
+            }
+            for (int k = from; k < to; k++) {
+                if (store != null) {
+                    patterns[k] = store.getPattern(base + k);
+                    weights[k] = weigh(new Pattern(patterns[k], store.getFreq(base + k), ""));
+                    continue;
+                }
+                String line = lines[k];
+                // the pattern ends at the next tabstop, if the frequency is followed by its interval
+                int tab = line.indexOf('\t');
+                if (tab <= 0) {
+                    patterns[k] = null;
+                    weights[k] = NO_WEIGHT;
+                    continue;
+                }
+                int end = line.indexOf('\t', tab + 1);
+                patterns[k] = line.substring(tab + 1, (end < 0) ? line.length() : end);
+                weights[k] = weigh(new Pattern(patterns[k], Integer.parseInt(line.substring(0, tab)), ""));
+            }
+        }
+    }
+
+    /**
+     * The patterns with the highest weighted frequencies seen so far, in a heap whose
+     * head is the pattern that is dropped next.
+     */
+    private static class TopPatterns {
+
+        private final int limit;
+        private final PriorityQueue<Entry> heap;
+
+        TopPatterns(int limit) {
+            this.limit = limit;
+            // the lowest weight first, and of two equal weights the later pattern
+            this.heap = new PriorityQueue<>(Math.min(limit, CHUNK) + 1, RANKING.reversed());
+        }
+
+        /**
+         * Adds a pattern if it is among the best ones, which drops the worst one if there
+         * are more than limit patterns.
+         * @param pattern the pattern
+         * @param weight its weighted frequency
+         * @param seq its position among all patterns
+         */
+        void offer(String pattern, int weight, long seq) {
+            if (heap.size() < limit)
+                heap.add(new Entry(pattern, weight, seq));
+            else if (weight > heap.peek().weight) {
+                heap.poll();
+                heap.add(new Entry(pattern, weight, seq));
+            }
+        }
+
+        /**
+         * @return the patterns, sorted by weighted frequency (descending), the earlier first
+         * if two are weighted the same
+         */
+        List<Entry> sorted() {
+            List<Entry> entries = new ArrayList<>(heap);
+            entries.sort(RANKING);
+            return entries;
+        }
+    }
+
+    /**
+     * All patterns that reach the threshold, which are written in the order of
+     * {@link #RANKING} without keeping all of them in memory. Whenever RUN_SIZE patterns are
+     * buffered, they are sorted and spilled to a temporary run of (key, count) records, see
+     * {@link RunWriter}. The key of a pattern starts with its inverted weight and its position,
+     * so that the order of the keys is the order of the ranking, and the count is its weight.
+     * The runs are merged by a {@link RunMerger} at the end, which never adds up two records
+     * as no two keys are the same.
+     */
+    private static class SortedPatterns implements Closeable {
+
+        // chars in front of the pattern in a key, two for the weight and four for the position
+        private static final int PREFIX = 6;
+
+        private final List<Entry> buffer = new ArrayList<>();
+        private final List<Path> runs = new ArrayList<>();
+        private char[] key = new char[64];
+
+        void add(Entry entry) throws IOException {
+            buffer.add(entry);
+            if (buffer.size() == RUN_SIZE)
+                spill();
+        }
+
+        /**
+         * Sorts the buffered patterns and writes them to a new run.
+         */
+        private void spill() throws IOException {
+            buffer.sort(RANKING);
+            Path run = Files.createTempFile("ranks", ".run");
+            runs.add(run);
+            try (RunWriter writer = new RunWriter(run)) {
+                for (Entry entry : buffer) {
+                    int length = PREFIX + entry.pattern.length();
+                    if (key.length < length)
+                        key = new char[Math.max(length, key.length*2)];
+                    // the weights of ranked patterns are not negative
+                    int inverted = Integer.MAX_VALUE - entry.weight;
+                    key[0] = (char) (inverted >>> 16);
+                    key[1] = (char) inverted;
+                    for (int c = 0; c < 4; c++)
+                        key[2 + c] = (char) (entry.seq >>> (48 - 16*c));
+                    entry.pattern.getChars(0, entry.pattern.length(), key, PREFIX);
+                    writer.write(key, 0, length, entry.weight);
+                }
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Writes all patterns in the order of the ranking, labelled in this order.
+         * @param writ the writer of the output file
+         */
+        void writeTo(PrintWriter writ) throws IOException {
+            int label = 0;
+            if (runs.isEmpty()) {
+                buffer.sort(RANKING);
+                for (Entry entry : buffer)
+                    writ.println("pattern" + (label++) + "\t" + entry.weight + "\t" + entry.pattern);
+                return;
+            }
+            if (!buffer.isEmpty())
+                spill();
+            try (RunMerger merger = new RunMerger(runs, false)) {
+                while (merger.next())
+                    writ.println("pattern" + (label++) + "\t" + merger.count() + "\t"
+                            + new String(merger.key(), PREFIX, merger.length() - PREFIX));
+            }
+        }
+
+        /**
+         * Deletes the runs.
+         */
+        @Override
+        public void close() throws IOException {
+            for (Path run : runs)
+                Files.deleteIfExists(run);
+        }
+    }
+
+    /**
+     * A pattern with its weighted frequency and its position among all patterns.
+     */
+    private static class Entry {
+        private final String pattern;
+        private final int weight;
+        private final long seq;
+
+        Entry(String pattern, int weight, long seq) {
+            this.pattern = pattern;
+            this.weight = weight;
+            this.seq = seq;
+        }
+    }
 }
@@ -0,0 +1,425 @@
+package pattern;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A binary file of patterns with frequencies and optional labels, i.e. the content of
+ * a .freq or .ranks file, which is memory-mapped instead of parsed when it is loaded.
+ * <p>
+ * The file starts with a magic number, followed by a string table with the chars of
+ * all labels and patterns, the fixed-width records of the patterns, and a footer that
+ * locates the string table and the records. A record consists of the position of the
+ * label in the string table as long, followed by the pattern, the lengths of the label
+ * and the pattern and the frequency as ints. The string table is mapped in segments
+ * of SEGMENT_SIZE bytes, and no label and pattern cross the border of a segment, so that
+ * every string is read from a single mapped buffer, also in files larger than the 2 GB
+ * that can be mapped at once.
+ * <p>
+ * A store is read-only once it is opened, so it can be read by many threads.
+ */
+public class PatternStore {
+
+    private static final int MAGIC = 0x00505331;
+    // size of the footer in bytes
+    private static final int FOOTER_SIZE = 8 + 8 + 8 + 4 + 4;
+    // size of a record in bytes
+    private static final int RECORD_SIZE = 8 + 4 + 4 + 4;
+    // size of a mapped segment of the string table in bytes
+    private static final int SEGMENT_SIZE = 1 << 30;
+    // number of records in a mapped segment of the records
+    private static final int SEGMENT_RECORDS = SEGMENT_SIZE / RECORD_SIZE;
+    // flag of stores whose patterns have labels
+    private static final int LABELLED = 1;
+
+    private final CharBuffer[] strings;
+    private final ByteBuffer[] records;
+    private final int size;
+    private final boolean labelled;
+
+    private PatternStore(CharBuffer[] strings, ByteBuffer[] records, int size, boolean labelled) {
+        this.strings = strings;
+        this.records = records;
+        this.size = size;
+        this.labelled = labelled;
+    }
+
+    /**
+     * Maps a pattern store into memory. Nothing is read until the patterns are accessed.
+     * @param file the pattern store
+     * @return the store
+     * @throws IOException if the file cannot be mapped or is no pattern store
+     */
+    public static PatternStore open(String file) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < 4 + FOOTER_SIZE)
+                throw new IOException("Not a pattern store: " + file);
+            ByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, length - FOOTER_SIZE, FOOTER_SIZE);
+            long stringsStart = footer.getLong();
+            long recordsStart = footer.getLong();
+            long size = footer.getLong();
+            int flags = footer.getInt();
+            if (footer.getInt() != MAGIC || stringsStart < 4 || recordsStart < stringsStart
+                    || size > Integer.MAX_VALUE || recordsStart + size*RECORD_SIZE != length - FOOTER_SIZE)
+                throw new IOException("Not a pattern store: " + file);
+
+            CharBuffer[] strings = new CharBuffer[(int) ((recordsStart - stringsStart + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int s = 0; s < strings.length; s++) {
+                long start = stringsStart + (long) s*SEGMENT_SIZE;
+                strings[s] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(SEGMENT_SIZE, recordsStart - start)).asCharBuffer();
+            }
+            ByteBuffer[] records = new ByteBuffer[(int) ((size + SEGMENT_RECORDS - 1) / SEGMENT_RECORDS)];
+            for (int s = 0; s < records.length; s++) {
+                long first = (long) s*SEGMENT_RECORDS;
+                records[s] = channel.map(FileChannel.MapMode.READ_ONLY, recordsStart + first*RECORD_SIZE,
+                        Math.min(SEGMENT_RECORDS, size - first)*RECORD_SIZE);
+            }
+            // the mapping stays valid after the channel is closed
+            return new PatternStore(strings, records, (int) size, (flags & LABELLED) != 0);
+        }
+    }
+
+    /**
+     * @param file a file
+     * @return true if the file starts like a pattern store, false if it does not or cannot be read
+     */
+    public static boolean isStore(String file) {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining() && channel.read(magic) >= 0);
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the number of patterns
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the patterns have labels, as in a .ranks file
+     */
+    public boolean isLabelled() {
+        return labelled;
+    }
+
+    /**
+     * @param i the index of a pattern
+     * @return its frequency
+     */
+    public int getFreq(int i) {
+        return records[i / SEGMENT_RECORDS].getInt((i % SEGMENT_RECORDS)*RECORD_SIZE + 16);
+    }
+
+    /**
+     * @param i the index of a pattern
+     * @return the pattern
+     */
+    public String getPattern(int i) {
+        ByteBuffer segment = records[i / SEGMENT_RECORDS];
+        int record = (i % SEGMENT_RECORDS)*RECORD_SIZE;
+        return string(segment.getLong(record) + segment.getInt(record + 8), segment.getInt(record + 12));
+    }
+
+    /**
+     * @param i the index of a pattern
+     * @return its label, or null if the patterns have no labels
+     */
+    public String getLabel(int i) {
+        if (!labelled)
+            return null;
+        ByteBuffer segment = records[i / SEGMENT_RECORDS];
+        int record = (i % SEGMENT_RECORDS)*RECORD_SIZE;
+        return string(segment.getLong(record), segment.getInt(record + 8));
+    }
+
+    /**
+     * @param i the index of a pattern
+     * @return the labelled pattern with its frequency
+     */
+    public Pattern getLabelledPattern(int i) {
+        return new Pattern(getPattern(i), getFreq(i), getLabel(i));
+    }
+
+    /**
+     * @param start the position of a string in the string table
+     * @param length its length
+     * @return the string
+     */
+    private String string(long start, int length) {
+        CharBuffer segment = strings[(int) (start / (SEGMENT_SIZE / 2))];
+        int from = (int) (start % (SEGMENT_SIZE / 2));
+        char[] chars = new char[length];
+        for (int c = 0; c < length; c++)
+            chars[c] = segment.get(from + c);
+        return new String(chars);
+    }
+
+    /**
+     * Reads the labelled patterns of a store.
+     * @param file the pattern store
+     * @return a set of labeled patterns with frequencies
+     * @throws IOException if the file cannot be mapped or is no store of labelled patterns
+     */
+    public static Set<Pattern> readLabelledPatterns(String file) throws IOException {
+        PatternStore store = open(file);
+        if (!store.isLabelled())
+            throw new IOException("Pattern store without labels: " + file);
+        Set<Pattern> patterns = new HashSet<>(store.size() * 2);
+        for (int i = 0; i < store.size(); i++)
+            patterns.add(store.getLabelledPattern(i));
+        return patterns;
+    }
+
+    /**
+     * Converts a pattern file in one of the text formats, frequency -tabstop- pattern as in
+     * .freq files or label -tabstop- frequency -tabstop- pattern as in .ranks files, into
+     * a pattern store. The format is told by the number of columns of the first line, and
+     * the confidence intervals of sampled .freq files are not kept.
+     * @param textfile the text file
+     * @param storefile the pattern store to write
+     * @throws IOException if a file cannot be read or written
+     */
+    public static void fromText(String textfile, String storefile) throws IOException {
+        try (BufferedReader read = new BufferedReader(new InputStreamReader(new FileInputStream(new File(textfile)), "UTF-8"))) {
+            String line = read.readLine();
+            boolean labelled = line != null && line.split("\t").length == 3;
+            try (Writer writer = new Writer(Paths.get(storefile), labelled)) {
+                for (; line != null; line = read.readLine()) {
+                    if (line.isEmpty())
+                        continue;
+                    int tab = line.indexOf('\t');
+                    int next = line.indexOf('\t', tab + 1);
+                    if (labelled)
+                        writer.add(line.substring(0, tab), Integer.parseInt(line.substring(tab + 1, next)),
+                                line.substring(next + 1));
+                    else
+                        writer.add(null, Integer.parseInt(line.substring(0, tab)),
+                                line.substring(tab + 1, (next < 0) ? line.length() : next));
+                }
+                writer.finish();
+            }
+        }
+    }
+
+    /**
+     * Converts a pattern store into the text format of .freq or .ranks files, depending
+     * on whether its patterns have labels, e.g. to edit the labels by hand.
+     * @param storefile the pattern store
+     * @param textfile the text file to write
+     * @throws IOException if a file cannot be read or written
+     */
+    public static void toText(String storefile, String textfile) throws IOException {
+        PatternStore store = open(storefile);
+        try (PrintWriter writ = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(textfile)), Charset.forName("UTF-8")))) {
+            for (int i = 0; i < store.size(); i++) {
+                if (store.isLabelled())
+                    writ.println(store.getLabel(i) + "\t" + store.getFreq(i) + "\t" + store.getPattern(i));
+                else
+                    writ.println(store.getFreq(i) + "\t" + store.getPattern(i));
+            }
+        }
+    }
+
+    /**
+     * Converts a pattern file from text into a pattern store or back, depending on the
+     * format of the input file.
+     * @param args the arguments -convert -in infile -out outfile
+     */
+    public static void main(String[] args) {
+        String infile = null;
+        String outfile = null;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "-in": infile = (i + 1 < args.length) ? args[++i] : null; break;
+                case "-out": outfile = (i + 1 < args.length) ? args[++i] : null; break;
+                default: help();
+            }
+        }
+        if (infile == null || outfile == null)
+            help();
+
+        try {
+            if (isStore(infile)) {
+                System.err.println("Converting pattern store to text...");
+                toText(infile, outfile);
+            }
+            else {
+                System.err.println("Converting text to pattern store...");
+                fromText(infile, outfile);
+            }
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private static void help() {
+        System.err.println("Usage: java -jar colex.jar -convert -in <infile> -out <outfile>");
+
+        System.err.println("Converts a .freq or .ranks file into a binary pattern store, or a pattern store back into text");
+
+        System.exit(0);
+    }
+
+    /**
+     * Writes a pattern store. The string table is written while the patterns are added
+     * and the records are collected in a temporary file next to the store, which is
+     * appended at the end, so that a store of any size is written with constant memory.
+     * The store is written next to the target and only moved over it by {@link #finish()},
+     * so that an interrupted conversion never leaves an incomplete store behind.
+     */
+    public static class Writer implements Closeable {
+
+        private static final int BUFFER_SIZE = 1 << 16;
+
+        private final Path file;
+        private final Path temporary;
+        private final Path recordFile;
+        private final boolean labelled;
+        private final FileChannel channel;
+        private final FileChannel recordChannel;
+        private final ByteBuffer buffer;
+        private final ByteBuffer recordBuffer;
+        // number of chars in the string table
+        private long chars;
+        private long size;
+        // whether the store has been moved to its file
+        private boolean finished;
+
+        /**
+         * @param file the pattern store to write, an existing file is overwritten
+         * @param labelled whether the patterns have labels
+         * @throws IOException if the file cannot be opened
+         */
+        public Writer(Path file, boolean labelled) throws IOException {
+            this.file = file;
+            this.temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            this.recordFile = file.resolveSibling(file.getFileName() + ".records.tmp");
+            this.labelled = labelled;
+            channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            recordChannel = FileChannel.open(recordFile, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            recordBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+            buffer.putInt(MAGIC);
+        }
+
+        /**
+         * Appends a pattern to the store.
+         * @param label the label of the pattern, ignored if the patterns have no labels
+         * @param freq the frequency of the pattern
+         * @param pattern the pattern
+         * @throws IOException if writing fails
+         */
+        public void add(String label, int freq, String pattern) throws IOException {
+            if (!labelled)
+                label = "";
+            int length = label.length() + pattern.length();
+            if (length > SEGMENT_SIZE / 2)
+                throw new IllegalArgumentException("Pattern too long for a pattern store: " + pattern);
+            // the label and the pattern start in the next segment if they do not fit into this one
+            long offset = chars % (SEGMENT_SIZE / 2);
+            if (offset + length > SEGMENT_SIZE / 2) {
+                for (long c = offset; c < SEGMENT_SIZE / 2; c++)
+                    putChar((char) 0);
+            }
+            long start = chars;
+            for (int c = 0; c < label.length(); c++)
+                putChar(label.charAt(c));
+            for (int c = 0; c < pattern.length(); c++)
+                putChar(pattern.charAt(c));
+
+            if (recordBuffer.remaining() < RECORD_SIZE)
+                flush(recordChannel, recordBuffer);
+            recordBuffer.putLong(start);
+            recordBuffer.putInt(label.length());
+            recordBuffer.putInt(pattern.length());
+            recordBuffer.putInt(freq);
+            size++;
+        }
+
+        private void putChar(char c) throws IOException {
+            if (buffer.remaining() < 2)
+                flush(channel, buffer);
+            buffer.putChar(c);
+            chars++;
+        }
+
+        private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+
+        /**
+         * Appends the records and the footer and moves the store to its file. Nothing can
+         * be added afterwards.
+         * @throws IOException if writing fails
+         */
+        public void finish() throws IOException {
+            flush(channel, buffer);
+            flush(recordChannel, recordBuffer);
+            long recordsStart = 4 + 2*chars;
+            for (long position = 0; position < recordChannel.size(); )
+                position += recordChannel.transferTo(position, recordChannel.size() - position, channel);
+            buffer.putLong(4);
+            buffer.putLong(recordsStart);
+            buffer.putLong(size);
+            buffer.putInt((labelled) ? LABELLED : 0);
+            buffer.putInt(MAGIC);
+            flush(channel, buffer);
+            channel.close();
+            recordChannel.close();
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+        }
+
+        /**
+         * Closes the files and deletes the temporary ones. A store that has not been
+         * finished, e.g. because adding a pattern failed, is discarded, and an existing
+         * file is left as it was.
+         * @throws IOException if a file cannot be closed or deleted
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                channel.close();
+                recordChannel.close();
+            }
+            finally {
+                Files.deleteIfExists(recordFile);
+                if (!finished)
+                    Files.deleteIfExists(temporary);
+            }
+        }
+    }
+}
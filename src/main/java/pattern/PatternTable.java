@@ -0,0 +1,399 @@
+package pattern;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A frequency table for patterns which stores every distinct pattern only once in a
+ * compact encoding and counts it under a dense integer id. A pattern like
+ * "./. -/a -/a -/s V/N" is encoded as the number of symbol transitions (as a char),
+ * followed by the input and output symbol of every transition and the POS transition,
+ * i.e. "..-a-a-sV/N" with a char of value 4 in front. All encoded patterns are kept in
+ * one shared char array, so counting a pattern allocates nothing unless it is new, and
+ * pattern strings are only created when they are requested, e.g. for writing the table
+ * to a file.
+ * A table is not thread-safe.
+ */
+public class PatternTable implements PatternCounter {
+
+    private static final int EMPTY = -1;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    // the encoded patterns, pattern i occupies data[offsets[i]] to data[offsets[i+1]-1]
+    private char[] data;
+    private int[] offsets;
+    // the hash code and frequency of every pattern
+    private int[] hashes;
+    private int[] freqs;
+    // number of patterns
+    private int size;
+
+    // open addressing hash table of pattern ids
+    private int[] slots;
+
+    // buffer for encoding patterns
+    private char[] key;
+
+    public PatternTable() {
+        this(1024);
+    }
+
+    /**
+     * @param capacity the expected number of patterns
+     */
+    public PatternTable(int capacity) {
+        capacity = Math.max(16, capacity);
+        data = new char[capacity * 8];
+        offsets = new int[capacity + 1];
+        hashes = new int[capacity];
+        freqs = new int[capacity];
+        slots = new int[Integer.highestOneBit((int) (capacity / LOAD_FACTOR) - 1) << 1];
+        Arrays.fill(slots, EMPTY);
+        key = new char[64];
+    }
+
+    /**
+     * @return the number of distinct patterns
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds a frequency to a pattern, which is added to the table if it is new.
+     * @param pattern a buffer containing the pattern
+     * @param length the length of the pattern
+     * @param transitions the number of symbol transitions before the POS transition
+     * @param freq the frequency to add
+     */
+    @Override
+    public void add(char[] pattern, int length, int transitions, int freq) {
+        key = ensureCapacity(key, encodedLength(length, transitions));
+        int keyLength = encode(pattern, length, transitions, key);
+        addEncoded(key, 0, keyLength, freq);
+    }
+
+    /**
+     * Adds a frequency to a pattern, which is added to the table if it is new.
+     * @param pattern the pattern
+     * @param freq the frequency to add
+     */
+    public void add(String pattern, int freq) {
+        char[] chars = pattern.toCharArray();
+        add(chars, chars.length, (pattern.lastIndexOf(' ') + 1) / 4, freq);
+    }
+
+    @Override
+    public void addTo(PatternCounter target) {
+        for (int id = 0; id < size; id++)
+            target.addEncoded(data, offsets[id], offsets[id+1] - offsets[id], freqs[id]);
+    }
+
+    @Override
+    public void addEncoded(char[] encoded, int from, int length, int freq) {
+        int hash = hash(encoded, from, length);
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int id = slots[slot];
+            if (id == EMPTY) {
+                slots[slot] = insert(encoded, from, length, hash, freq);
+                if (size > slots.length * LOAD_FACTOR)
+                    rehash(slots.length * 2);
+                return;
+            }
+            if (hashes[id] == hash && equals(id, encoded, from, length)) {
+                freqs[id] += freq;
+                return;
+            }
+        }
+    }
+
+    @Override
+    public long maxError() {
+        return 0;
+    }
+
+    @Override
+    public PatternTable toTable() {
+        return this;
+    }
+
+    private int insert(char[] encoded, int from, int length, int hash, int freq) {
+        if (size == freqs.length) {
+            int capacity = size * 2;
+            offsets = Arrays.copyOf(offsets, capacity + 1);
+            hashes = Arrays.copyOf(hashes, capacity);
+            freqs = Arrays.copyOf(freqs, capacity);
+        }
+        int start = offsets[size];
+        if (start + length > data.length)
+            data = Arrays.copyOf(data, Math.max(start + length, data.length * 2));
+        System.arraycopy(encoded, from, data, start, length);
+        offsets[size + 1] = start + length;
+        hashes[size] = hash;
+        freqs[size] = freq;
+        return size++;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (slots[slot] != EMPTY)
+                slot = (slot + 1) & mask;
+            slots[slot] = id;
+        }
+    }
+
+    private boolean equals(int id, char[] encoded, int from, int length) {
+        int start = offsets[id];
+        if (offsets[id+1] - start != length)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (data[start + i] != encoded[from + i])
+                return false;
+        return true;
+    }
+
+    /**
+     * @param encoded a buffer containing an encoded pattern
+     * @param from start of the encoded pattern
+     * @param length length of the encoded pattern
+     * @return the hash code of the encoded pattern
+     */
+    static int hash(char[] encoded, int from, int length) {
+        int h = 0;
+        for (int i = from; i < from + length; i++)
+            h = 31 * h + encoded[i];
+        // spread the bits for the power-of-two table
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    /**
+     * @param length the length of a pattern
+     * @param transitions the number of symbol transitions before the POS transition
+     * @return the length of the encoded pattern
+     */
+    static int encodedLength(int length, int transitions) {
+        return 1 + 2 * transitions + (length - Math.min(length, transitions * 4));
+    }
+
+    /**
+     * @param buffer a buffer
+     * @param capacity the needed capacity
+     * @return the buffer or a larger one if it was too small
+     */
+    static char[] ensureCapacity(char[] buffer, int capacity) {
+        if (buffer.length < capacity)
+            return new char[Math.max(capacity, buffer.length * 2)];
+        return buffer;
+    }
+
+    /**
+     * Encodes a pattern.
+     * @param pattern a buffer containing the pattern
+     * @param length the length of the pattern
+     * @param transitions the number of symbol transitions before the POS transition
+     * @param key the buffer for the encoded pattern, must have encodedLength(length, transitions)
+     * @return the length of the encoded pattern
+     */
+    static int encode(char[] pattern, int length, int transitions, char[] key) {
+        int posStart = Math.min(length, transitions * 4);
+        int keyLength = 1 + 2 * transitions + (length - posStart);
+        int k = 0;
+        key[k++] = (char) transitions;
+        for (int i = 0; i < transitions; i++) {
+            key[k++] = pattern[4*i];
+            key[k++] = pattern[4*i + 2];
+        }
+        System.arraycopy(pattern, posStart, key, k, length - posStart);
+        return keyLength;
+    }
+
+    /**
+     * @param id the id of a pattern
+     * @return the frequency of the pattern
+     */
+    public int getFreq(int id) {
+        return freqs[id];
+    }
+
+    /**
+     * Creates the string of a pattern.
+     * @param id the id of a pattern
+     * @return the pattern as string
+     */
+    public String getPattern(int id) {
+        return decode(data, offsets[id], offsets[id+1] - offsets[id]);
+    }
+
+    /**
+     * Creates the string of an encoded pattern.
+     * @param encoded a buffer containing the encoded pattern
+     * @param from start of the encoded pattern
+     * @param length length of the encoded pattern
+     * @return the pattern as string
+     */
+    static String decode(char[] encoded, int from, int length) {
+        int transitions = encoded[from];
+        StringBuilder pattern = new StringBuilder(4 * transitions + length);
+        for (int i = 0; i < transitions; i++) {
+            pattern.append(encoded[from + 1 + 2*i])
+                    .append('/')
+                    .append(encoded[from + 2 + 2*i])
+                    .append(' ');
+        }
+        return pattern.append(encoded, from + 1 + 2*transitions, length - 1 - 2*transitions).toString();
+    }
+
+    /**
+     * Removes all patterns with a frequency at or below the given threshold. The
+     * remaining patterns get new ids.
+     * @param threshold frequency threshold for removal
+     */
+    public void removeAtMost(double threshold) {
+        int kept = 0;
+        int keptData = 0;
+        for (int id = 0; id < size; id++) {
+            if (freqs[id] > threshold) {
+                int start = offsets[id];
+                int length = offsets[id+1] - start;
+                System.arraycopy(data, start, data, keptData, length);
+                offsets[kept] = keptData;
+                hashes[kept] = hashes[id];
+                freqs[kept] = freqs[id];
+                keptData += length;
+                kept++;
+            }
+        }
+        offsets[kept] = keptData;
+        size = kept;
+        // shrink the arrays to free the space of the removed patterns
+        int capacity = Math.max(16, size);
+        data = Arrays.copyOf(data, Math.max(keptData, capacity * 8));
+        offsets = Arrays.copyOf(offsets, capacity + 1);
+        hashes = Arrays.copyOf(hashes, capacity);
+        freqs = Arrays.copyOf(freqs, capacity);
+        rehash(Integer.highestOneBit((int) (capacity / LOAD_FACTOR) - 1) << 1);
+    }
+
+    /**
+     * Multiplies all frequencies with a factor, rounding to the nearest integer.
+     * @param factor the factor
+     */
+    public void scale(double factor) {
+        for (int id = 0; id < size; id++)
+            freqs[id] = (int) Math.min(Integer.MAX_VALUE, Math.round(freqs[id] * factor));
+    }
+
+    /**
+     * @return the ids of all patterns sorted by frequency (descending)
+     */
+    public int[] sortedByFreq() {
+        // sort by inverted frequency in the upper and id in the lower half of a long
+        long[] keys = new long[size];
+        for (int id = 0; id < size; id++)
+            keys[id] = ((long) (Integer.MAX_VALUE - freqs[id]) << 32) | id;
+        Arrays.sort(keys);
+        int[] sorted = new int[size];
+        for (int i = 0; i < size; i++)
+            sorted[i] = (int) keys[i];
+        return sorted;
+    }
+
+    /**
+     * Writes all encoded patterns with their frequencies as records, in the order of
+     * their ids.
+     * @param writer the writer to write to
+     * @throws IOException if writing fails
+     */
+    void writeRecords(RunWriter writer) throws IOException {
+        for (int id = 0; id < size; id++)
+            writer.write(data, offsets[id], offsets[id+1] - offsets[id], freqs[id]);
+    }
+
+    /**
+     * Writes all encoded patterns with their frequencies to a run, sorted by the
+     * encoded patterns.
+     * @param writer the run to write to
+     * @throws IOException if writing fails
+     */
+    void writeRun(RunWriter writer) throws IOException {
+        int[] ids = new int[size];
+        for (int id = 0; id < size; id++)
+            ids[id] = id;
+        sortByPattern(ids, new int[size], 0, size);
+        for (int id : ids)
+            writer.write(data, offsets[id], offsets[id+1] - offsets[id], freqs[id]);
+    }
+
+    /**
+     * Sorts a range of ids by their encoded patterns with a merge sort on the primitive
+     * ids, which are not boxed for a comparator.
+     * @param ids the ids to sort
+     * @param buffer a buffer as long as the ids
+     * @param from the first position of the range
+     * @param to the position after the range
+     */
+    private void sortByPattern(int[] ids, int[] buffer, int from, int to) {
+        if (to - from < 16) {
+            // insertion sort for short ranges
+            for (int i = from + 1; i < to; i++) {
+                int id = ids[i];
+                int j = i;
+                for (; j > from && compare(ids[j-1], id) > 0; j--)
+                    ids[j] = ids[j-1];
+                ids[j] = id;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        sortByPattern(ids, buffer, from, mid);
+        sortByPattern(ids, buffer, mid, to);
+        if (compare(ids[mid-1], ids[mid]) <= 0)
+            return;
+        System.arraycopy(ids, from, buffer, from, to - from);
+        for (int k = from, i = from, j = mid; k < to; k++)
+            ids[k] = (j == to || (i < mid && compare(buffer[i], buffer[j]) <= 0)) ? buffer[i++] : buffer[j++];
+    }
+
+    /**
+     * @param id1 the id of a pattern
+     * @param id2 the id of another pattern
+     * @return the order of the encoded patterns, as in a run
+     */
+    private int compare(int id1, int id2) {
+        return RunReader.compare(data, offsets[id1], offsets[id1+1] - offsets[id1],
+                data, offsets[id2], offsets[id2+1] - offsets[id2]);
+    }
+
+    /**
+     * @return the sum of all frequencies
+     */
+    public long totalFreq() {
+        long sum = 0;
+        for (int id = 0; id < size; id++)
+            sum += freqs[id];
+        return sum;
+    }
+
+    /**
+     * Creates a map with all pattern strings and their frequencies.
+     * @return a map of patterns with their frequencies
+     */
+    public TObjectIntMap<String> toMap() {
+        TObjectIntMap<String> map = new TObjectIntHashMap<>(size);
+        for (int id = 0; id < size; id++)
+            map.put(getPattern(id), freqs[id]);
+        return map;
+    }
+}
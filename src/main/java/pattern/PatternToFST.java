@@ -13,7 +13,7 @@ public class PatternToFST {
     public static List<FST> createMultipleFromPatterns(Collection<Pattern> patterns) {
         List<FST> fsts = new ArrayList<>();
         for (Pattern p : patterns) {
-            fsts.add(new FST(p.getPattern(), p.getFreq(), p.getLabel()));
+            fsts.add(new FST(p));
         }
         return fsts;
     }
@@ -23,9 +23,9 @@ public class PatternToFST {
         for (Pattern p : patterns) {
             String rel = p.getLabel();
             if (fsts.containsKey(p.getLabel()))
-                fsts.put(rel, FST.disjunct(fsts.get(rel), new FST(p.getPattern(), p.getFreq(), rel)));
+                fsts.put(rel, FST.disjunct(fsts.get(rel), new FST(p)));
             else
-                fsts.put(rel, new FST(p.getPattern(), p.getFreq(), rel));
+                fsts.put(rel, new FST(p));
         }
         for (FST fst : fsts.values())
             fst.determinize();
@@ -0,0 +1,152 @@
+package pattern;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges sorted runs into one sorted sequence of records, adding up the counts of
+ * records with the same key. Only the current record of every run is held in memory.
+ * If there are more than MAX_FAN_IN runs, groups of runs are first merged into
+ * intermediate runs, so that the number of open files stays bounded.
+ */
+class RunMerger implements Closeable {
+
+    // maximum number of runs that are read at the same time
+    private static final int MAX_FAN_IN = 64;
+
+    private final List<RunReader> readers;
+    private final PriorityQueue<RunReader> queue;
+    // runs to delete when the merger is closed
+    private final List<Path> temporary;
+
+    // the current merged record
+    private char[] key;
+    private int length;
+    private int count;
+
+    /**
+     * @param runs the sorted runs to merge
+     * @param delete whether to delete the runs when the merger is closed
+     * @throws IOException if a run cannot be read
+     */
+    RunMerger(List<Path> runs, boolean delete) throws IOException {
+        this(runs, 0, delete);
+    }
+
+    /**
+     * @param runs the sorted runs to merge
+     * @param offset the position in the files at which the runs start, e.g. after a header
+     * @param delete whether to delete the runs when the merger is closed
+     * @throws IOException if a run cannot be read
+     */
+    RunMerger(List<Path> runs, long offset, boolean delete) throws IOException {
+        temporary = new ArrayList<>();
+        if (delete)
+            temporary.addAll(runs);
+        if (runs.size() > MAX_FAN_IN) {
+            runs = reduce(runs, offset, delete);
+            offset = 0;
+        }
+        readers = new ArrayList<>(runs.size());
+        queue = new PriorityQueue<>(Math.max(1, runs.size()), (r1, r2) ->
+                RunReader.compare(r1.key(), 0, r1.length(), r2.key(), 0, r2.length()));
+        key = new char[64];
+        for (Path run : runs) {
+            RunReader reader = new RunReader(run, offset);
+            readers.add(reader);
+            if (reader.next())
+                queue.add(reader);
+        }
+    }
+
+    /**
+     * Merges groups of runs into intermediate runs until at most MAX_FAN_IN runs are left.
+     * @return the runs to merge directly
+     */
+    private List<Path> reduce(List<Path> runs, long offset, boolean delete) throws IOException {
+        while (runs.size() > MAX_FAN_IN) {
+            List<Path> reduced = new ArrayList<>();
+            for (int from = 0; from < runs.size(); from += MAX_FAN_IN) {
+                List<Path> group = runs.subList(from, Math.min(runs.size(), from + MAX_FAN_IN));
+                Path run = Files.createTempFile("patterns", ".run");
+                temporary.add(run);
+                try (RunMerger merger = new RunMerger(group, offset, false);
+                     RunWriter writer = new RunWriter(run)) {
+                    while (merger.next())
+                        writer.write(merger.key(), 0, merger.length(), merger.count());
+                }
+                if (delete)
+                    for (Path merged : group)
+                        Files.deleteIfExists(merged);
+                reduced.add(run);
+            }
+            runs = reduced;
+            offset = 0;
+        }
+        return runs;
+    }
+
+    /**
+     * Moves to the next key and sums up its counts over all runs.
+     * @return false if all runs are exhausted
+     * @throws IOException if a run cannot be read
+     */
+    boolean next() throws IOException {
+        RunReader top = queue.poll();
+        if (top == null)
+            return false;
+        length = top.length();
+        if (key.length < length)
+            key = new char[Math.max(length, key.length * 2)];
+        System.arraycopy(top.key(), 0, key, 0, length);
+        count = top.count();
+        advance(top);
+        while (!queue.isEmpty()) {
+            RunReader reader = queue.peek();
+            if (RunReader.compare(reader.key(), 0, reader.length(), key, 0, length) != 0)
+                break;
+            count += reader.count();
+            advance(queue.poll());
+        }
+        return true;
+    }
+
+    private void advance(RunReader reader) throws IOException {
+        if (reader.next())
+            queue.add(reader);
+    }
+
+    /**
+     * @return a buffer containing the current key
+     */
+    char[] key() {
+        return key;
+    }
+
+    /**
+     * @return the length of the current key
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     * @return the summed count of the current key
+     */
+    int count() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (RunReader reader : readers)
+            reader.close();
+        for (Path run : temporary)
+            Files.deleteIfExists(run);
+    }
+}
@@ -0,0 +1,161 @@
+package pattern;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the records of a run written by {@link RunWriter} one by one, as well as
+ * the plain ints and longs in between.
+ */
+class RunReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 14;
+
+    private final FileChannel channel;
+    private ByteBuffer buffer;
+
+    // the current record
+    private char[] key;
+    private int length;
+    private int count;
+
+    /**
+     * @param file the file containing the run
+     * @throws IOException if the file cannot be opened
+     */
+    RunReader(Path file) throws IOException {
+        this(file, 0);
+    }
+
+    /**
+     * @param file the file containing the run
+     * @param offset the position in the file at which the run starts, e.g. after a header
+     * @throws IOException if the file cannot be opened
+     */
+    RunReader(Path file, long offset) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        channel.position(offset);
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.flip();
+        key = new char[64];
+    }
+
+    /**
+     * Reads the next record.
+     * @return false if the end of the run was reached
+     * @throws IOException if reading fails or the run is truncated
+     */
+    boolean next() throws IOException {
+        if (!fill(4))
+            return false;
+        length = buffer.getInt();
+        if (!fill(2 * length + 4))
+            throw new EOFException("Truncated run");
+        if (key.length < length)
+            key = new char[Math.max(length, key.length * 2)];
+        for (int i = 0; i < length; i++)
+            key[i] = buffer.getChar();
+        count = buffer.getInt();
+        return true;
+    }
+
+    /**
+     * Reads an int.
+     * @return the value
+     * @throws IOException if reading fails or the end of the file was reached
+     */
+    int readInt() throws IOException {
+        if (!fill(4))
+            throw new EOFException();
+        return buffer.getInt();
+    }
+
+    /**
+     * Reads a long.
+     * @return the value
+     * @throws IOException if reading fails or the end of the file was reached
+     */
+    long readLong() throws IOException {
+        if (!fill(8))
+            throw new EOFException();
+        return buffer.getLong();
+    }
+
+    /**
+     * @return the position in the file up to which everything has been read
+     * @throws IOException if the position cannot be determined
+     */
+    long position() throws IOException {
+        return channel.position() - buffer.remaining();
+    }
+
+    /**
+     * Makes sure that the buffer holds at least the given number of bytes.
+     * @return false if the end of the file was reached before
+     */
+    private boolean fill(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes)
+            return true;
+        if (bytes < 0)
+            throw new IOException("Corrupt run");
+        if (position() + bytes > channel.size())
+            return false;
+        // a long record
+        if (buffer.capacity() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(bytes);
+            larger.put(buffer);
+            larger.flip();
+            buffer = larger;
+        }
+        buffer.compact();
+        while (buffer.position() < bytes && channel.read(buffer) >= 0);
+        buffer.flip();
+        return buffer.remaining() >= bytes;
+    }
+
+    /**
+     * @return a buffer containing the key of the current record
+     */
+    char[] key() {
+        return key;
+    }
+
+    /**
+     * @return the length of the key of the current record
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     * @return the count of the current record
+     */
+    int count() {
+        return count;
+    }
+
+    /**
+     * Compares two keys lexicographically by their chars, a prefix of a key comes first.
+     * This is the order of the records in a run.
+     */
+    static int compare(char[] key1, int from1, int length1, char[] key2, int from2, int length2) {
+        int n = Math.min(length1, length2);
+        for (int i = 0; i < n; i++) {
+            char c1 = key1[from1 + i];
+            char c2 = key2[from2 + i];
+            if (c1 != c2)
+                return c1 - c2;
+        }
+        return length1 - length2;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,106 @@
+package pattern;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a run, i.e. a file of (key, count) records, through a file channel. A record
+ * consists of the key length as int, the chars of the key and the count as int. The
+ * records of a run are expected to be sorted by key, see {@link RunReader#compare}.
+ * Plain ints and longs can be written in between, e.g. for headers.
+ */
+class RunWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    /**
+     * @param file the file to write the run to, an existing file is overwritten
+     * @throws IOException if the file cannot be opened
+     */
+    RunWriter(Path file) throws IOException {
+        this(file, false);
+    }
+
+    /**
+     * @param file the file to write the run to
+     * @param append whether to append to an existing file instead of overwriting it
+     * @throws IOException if the file cannot be opened
+     */
+    RunWriter(Path file, boolean append) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                (append) ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    /**
+     * Appends a record to the run.
+     * @param key a buffer containing the key
+     * @param from start of the key
+     * @param length length of the key
+     * @param count the count of the key
+     * @throws IOException if writing fails
+     */
+    void write(char[] key, int from, int length, int count) throws IOException {
+        if (buffer.remaining() < 8 + 2 * length)
+            flush();
+        buffer.putInt(length);
+        for (int i = from; i < from + length; i++)
+            buffer.putChar(key[i]);
+        buffer.putInt(count);
+    }
+
+    /**
+     * Appends an int.
+     * @param value the value
+     * @throws IOException if writing fails
+     */
+    void writeInt(int value) throws IOException {
+        if (buffer.remaining() < 4)
+            flush();
+        buffer.putInt(value);
+    }
+
+    /**
+     * Appends a long.
+     * @param value the value
+     * @throws IOException if writing fails
+     */
+    void writeLong(long value) throws IOException {
+        if (buffer.remaining() < 8)
+            flush();
+        buffer.putLong(value);
+    }
+
+    /**
+     * Writes everything appended so far through to the storage device.
+     * @throws IOException if writing fails
+     */
+    void sync() throws IOException {
+        flush();
+        channel.force(false);
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        }
+        finally {
+            channel.close();
+        }
+    }
+}
@@ -2,33 +2,56 @@ package pattern; /**
  * A class to align all the words in a list with each other
  */
 
-import gnu.trove.map.TObjectIntMap;
-import gnu.trove.map.hash.TObjectIntHashMap;
+
+import util.FileIO;
 
 import java.io.*;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 public class SequenceAlignment {
 
-    // value by which the cleanup frequency threshold gets increased
-    private static final double CLEANUP_INCREASE = 1.0;
-    // portion of memory which may be filled before cleanup
-    private static final double CLEANUP_THRESHOLD = 0.85;
+    // patterns found at most this often are always removed
+    private static final int MIN_FREQ = 1;
+    // number of patterns held in memory when merging shards without a spill limit
+    private static final int MERGE_SPILL = 1 << 20;
+    // number of row batches between which checkpoints can be written
+    private static final int CHECKPOINT_BATCHES = 1000;
+    // quantile of the standard normal distribution for 95% confidence intervals
+    private static final double CONFIDENCE_Z = 1.96;
     // portion of same char transitions for a pattern to be recorded
     private static final double KEEP = 1.0/3;
 
+    // the aligner of each thread for findPattern
+    private static final ThreadLocal<PairAligner> ALIGNER = ThreadLocal.withInitial(PairAligner::new);
+
     /**
      * Gets a set of words, aligns all the words with each other and stores all
      * reasonable patterns in a map.
      * @param words a set of words of the form WORD:POS
-     * @return a map of patterns with their frequencies
+     * @return a table of patterns with their frequencies
      */
-    public static TObjectIntMap<String> getPatterns(Collection<String> words) {
-        // put words into list and shuffle for fair pairings
-        List<String> wlist = new ArrayList<>(words);
-        Collections.shuffle(wlist);
-        return getPatterns(wlist, wlist, true);
+    public static PatternTable getPatterns(Collection<String> words) {
+        return getPatterns(words, new AlignmentOptions());
+    }
+
+    /**
+     * Gets a set of words, aligns all the words with each other and stores all
+     * reasonable patterns in a map. If more than one thread is requested, the
+     * word pairs are distributed over a fork-join pool; with exact counting the
+     * resulting frequencies are the same as those of a serial run.
+     * @param words a set of words of the form WORD:POS
+     * @param options the number of threads and the counting mode
+     * @return a table of patterns with their frequencies
+     */
+    public static PatternTable getPatterns(Collection<String> words, AlignmentOptions options) {
+        if (options.getShards() > 1)
+            throw new IllegalStateException("A shard only yields partial counts, which are written by writePatterns");
+        return scale(finalCleanup(countPatterns(words, options).toTable()), options.getSample());
     }
 
     /**
@@ -36,71 +59,453 @@ public class SequenceAlignment {
      * reasonable patterns in a map.
      * @param words1 a set of words of the form WORD:POS
      * @param words2 a set of words of the form WORD:POS
-     * @return a map of patterns with their frequencies
+     * @return a table of patterns with their frequencies
      */
-    public static TObjectIntMap<String> getPatterns(Collection<String> words1, Collection<String> words2) {
+    public static PatternTable getPatterns(Collection<String> words1, Collection<String> words2) {
         // put words into list and shuffle for fair pairings
         List<String> wlist1 = new ArrayList<>(words1);
         List<String> wlist2 = new ArrayList<>(words2);
         Collections.shuffle(wlist1);
         Collections.shuffle(wlist2);
-        return getPatterns(wlist1, wlist2, false);
+        AlignmentOptions options = new AlignmentOptions();
+        return finalCleanup(countPatterns(wlist1, wlist2, false, options, null).toTable());
     }
 
     /**
-     * Gets a set of words, aligns all the words with each other and stores all
-     * reasonable patterns in a map.
+     * Gets a set of words, aligns all the words with each other and writes all
+     * reasonable patterns with their frequencies to a file, sorted by frequency.
+     * Unlike {@link #getPatterns(Collection, AlignmentOptions)}, this works in
+     * bounded memory if spilling is set in the options: the spilled runs are merged
+     * and cleaned up in two passes over temporary files, and the remaining patterns
+     * are sorted by frequency with another set of runs.
+     * If the options select a shard, only the pairs of the shard are aligned, and their
+     * exact counts are written without any cleanup to a shard file, which is merged
+     * with the files of the other shards by {@link #mergePatterns}.
+     * @param words a set of words of the form WORD:POS
+     * @param options the number of threads, the counting mode and the shard
+     * @param outfile the pattern file or shard file to write
+     */
+    public static void writePatterns(Collection<String> words, AlignmentOptions options, String outfile) {
+        if (options.getShards() > 1 && options.getCounters() > 0)
+            throw new IllegalStateException("Shards need exact counting");
+        PatternCounter patternCounter = countPatterns(words, options);
+        try {
+            if (options.getShards() > 1)
+                ShardFile.write(Paths.get(outfile), words, options, patternCounter);
+            else if (patternCounter instanceof SpillingCounter)
+                writeMerged(((SpillingCounter) patternCounter).merge(true), options.getSpill(),
+                        options.getSample(), outfile);
+            else
+                FileIO.writePatterns(scale(finalCleanup(patternCounter.toTable()), options.getSample()),
+                        options.getSample(), outfile);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Merges the shard files of all shards of an alignment run and writes all reasonable
+     * patterns with their frequencies to a file, sorted by frequency. The result is the
+     * same as that of a run over all shards at once. The shard files are streamed as
+     * sorted runs, so the memory needed is bounded by the spill limit of the options,
+     * or by MERGE_SPILL patterns if none is set.
+     * @param shardfiles the shard files of all shards
+     * @param options the spill limit
+     * @param outfile the pattern file to write
+     */
+    public static void mergePatterns(List<String> shardfiles, AlignmentOptions options, String outfile) {
+        List<Path> files = new ArrayList<>();
+        for (String shardfile : shardfiles)
+            files.add(Paths.get(shardfile));
+        try {
+            double sample = ShardFile.check(files);
+            int limit = (options.getSpill() > 0) ? options.getSpill() : MERGE_SPILL;
+            writeMerged(ShardFile.merge(files), limit, sample, outfile);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Aligns all the words of a set with each other and counts the patterns found.
+     * The words are sorted before they are shuffled, so that their order only
+     * depends on the seed, which allows to resume a run from a checkpoint.
+     * @param words a set of words of the form WORD:POS
+     * @param options the number of threads, the counting mode and the checkpoints
+     * @return a counter with the patterns and their frequencies, without any cleanup
+     */
+    private static PatternCounter countPatterns(Collection<String> words, AlignmentOptions options) {
+        if (options.getPOSPairs() != null)
+            return countPartitioned(words, options);
+        if (options.getState() != null)
+            return countIncrementally(words, options);
+        List<String> wlist = new ArrayList<>(words);
+        Collections.sort(wlist);
+        Checkpoint checkpoint = null;
+        if (options.getCheckpoint() != null) {
+            if (options.getCounters() > 0 || options.getSpill() > 0)
+                throw new IllegalStateException("Checkpoints need exact counting without spilling");
+            Path file = Paths.get(options.getCheckpoint());
+            try {
+                checkpoint = (options.isResume())
+                        ? Checkpoint.resume(file, wlist, options)
+                        : Checkpoint.create(file, wlist, options);
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
+        // shuffle for fair pairings
+        Collections.shuffle(wlist, new Random(options.getSeed()));
+        return countPatterns(wlist, wlist, true, options, checkpoint);
+    }
+
+    /**
+     * Aligns the words of a set by pairs of POS, see {@link AlignmentOptions#setPOSPairs}.
+     * The words are partitioned by their POS, and each pair of partitions with an enabled
+     * POS pair is aligned as a unit of its own, whose patterns are only counted in the
+     * enabled directions. With shards, the units are dealt out to the shards in turn.
+     * @param words a set of words of the form WORD:POS
+     * @param options the POS pairs, the number of threads, the counting mode and the shard
+     * @return a counter with the patterns and their frequencies, without any cleanup
+     */
+    private static PatternCounter countPartitioned(Collection<String> words, AlignmentOptions options) {
+        if (options.getState() != null || options.getCheckpoint() != null)
+            throw new IllegalStateException("POS pairs cannot be combined with a state or checkpoints");
+        // the words are sorted before they are shuffled, so that the partitions only depend on the seed
+        List<String> wlist = new ArrayList<>(words);
+        Collections.sort(wlist);
+        Map<String, List<String>> partitions = new TreeMap<>();
+        for (String word : wlist)
+            partitions.computeIfAbsent(word.substring(word.indexOf(':') + 1), pos -> new ArrayList<>()).add(word);
+        // shuffle for fair pairings
+        Random random = new Random(options.getSeed());
+        for (List<String> partition : partitions.values())
+            Collections.shuffle(partition, random);
+        if (options.getSample() < 1)
+            System.err.println("Sampling " + options.getSample() + " of all pairs with seed " + options.getSeed());
+
+        Set<String> posPairs = options.getPOSPairs();
+        List<String> tags = new ArrayList<>(partitions.keySet());
+        PatternCounter patternCounter = options.newCounter();
+        int unit = 0;
+        for (int x = 0; x < tags.size(); x++) {
+            for (int y = x; y < tags.size(); y++) {
+                String pos1 = tags.get(x);
+                String pos2 = tags.get(y);
+                // patterns deriving words of the first partition from the second, and vice versa
+                boolean forward = posPairs.contains(pos2 + "/" + pos1);
+                boolean reverse = posPairs.contains(pos1 + "/" + pos2);
+                if (!forward && !reverse)
+                    continue;
+                if (unit++ % options.getShards() != options.getShard())
+                    continue;
+                List<String> wlist1 = partitions.get(pos1);
+                List<String> wlist2 = partitions.get(pos2);
+                System.err.println("Aligning " + wlist1.size() + " words with POS " + pos1 + " with "
+                        + wlist2.size() + " words with POS " + pos2);
+                // every unit samples its pairs with a seed of its own
+                PairMatrix matrix = new PairMatrix(wlist1, wlist2, x == y, KEEP, options.getSample(),
+                        options.getSeed() + unit * 0x9E3779B97F4A7C15L, forward, reverse);
+                patternCounter.addAll(countPatterns(matrix, 0, matrix.rows(), options, null));
+            }
+        }
+        if (options.getShards() > 1)
+            System.err.println("Aligned shard " + (options.getShard() + 1) + " of " + options.getShards()
+                    + " of " + unit + " POS pair units");
+        return patternCounter;
+    }
+
+    /**
+     * Counts the patterns of all pairs of a set of words, of which some may have been
+     * aligned before according to the state file of the options. The counts of the
+     * state are read and only the pairs with at least one new word are aligned: the new
+     * words with the known words and the new words with each other. As both directions
+     * of a pair are counted, this gives the same counts as aligning all pairs. The
+     * state file is then updated with all words and counts.
+     * @param words a set of words of the form WORD:POS, which may omit known words
+     * @param options the state file, the number of threads and the counting mode
+     * @return a counter with the patterns and their frequencies, without any cleanup
+     */
+    private static PatternCounter countIncrementally(Collection<String> words, AlignmentOptions options) {
+        if (options.getCounters() > 0 || options.getSample() < 1 || options.getShards() > 1
+                || options.getCheckpoint() != null)
+            throw new IllegalStateException("A state needs exact counting of all pairs without checkpoints");
+        Path file = Paths.get(options.getState());
+        PatternCounter patternCounter = options.newCounter();
+        Set<String> known = new HashSet<>();
+        try {
+            if (Files.exists(file))
+                known = StateFile.read(file, patternCounter);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        List<String> added = new ArrayList<>();
+        for (String word : words)
+            if (!known.contains(word))
+                added.add(word);
+        List<String> wlist = new ArrayList<>(known);
+        System.err.println("Aligning " + added.size() + " new words with " + wlist.size() + " known words");
+        if (!added.isEmpty()) {
+            // shuffle for fair pairings
+            Random random = new Random(options.getSeed());
+            Collections.shuffle(added, random);
+            Collections.shuffle(wlist, random);
+            if (!wlist.isEmpty())
+                patternCounter.addAll(countPatterns(added, wlist, false, options, null));
+            patternCounter.addAll(countPatterns(added, added, true, options, null));
+        }
+
+        wlist.addAll(added);
+        try {
+            StateFile.write(file, wlist, patternCounter);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        return patternCounter;
+    }
+
+    /**
+     * Aligns all the words of two lists with each other and counts the patterns found.
      * @param wlist1 a shuffled list of words of the form WORD:POS
      * @param wlist2 a shuffled list of words of the form WORD:POS
-     * @return a map of patterns with their frequencies
-     */
-    private static TObjectIntMap<String> getPatterns(List<String> wlist1, List<String> wlist2, boolean same) {
-        // table which stores the patterns with frequencies
-        TObjectIntMap<String> patternFrequencyTable = new TObjectIntHashMap<>();
-
-        // frequency threshold for next cleanup
-        double f = CLEANUP_INCREASE;
-
-        // amount of used memory at which a cleanup will be scheduled
-        Runtime r = Runtime.getRuntime();
-        long threshold = (long)(r.maxMemory()*CLEANUP_THRESHOLD);
-
-        for (int i = 0; i < wlist1.size(); i++) {
-            String w1 = wlist1.get(i);
-            //System.out.println(f + " " + i + " " + w1 + " " + (r.totalMemory()-r.freeMemory()) + " " + r.totalMemory());
-            for (int j = ((same) ? i+1 : 0); j < wlist2.size(); j++) {
-                String w2 = wlist2.get(j);
-                if (!(w1.equals(w2))) {
-                    // pair words
-                    String pattern = findPattern(w1, w2);
-                    // if a valid pattern was found, store it in both directions
-                    if (!pattern.isEmpty()) {
-                        patternFrequencyTable.adjustOrPutValue(pattern, 1, 1);
-                        patternFrequencyTable.adjustOrPutValue(findPattern(w2, w1), 1, 1);
-                    }
-                }
-            }
+     * @param same whether both lists are the same
+     * @param options the number of threads and the counting mode
+     * @param checkpoint the checkpoint to resume from and write to, null for no checkpoints
+     * @return a counter with the patterns and their frequencies, without any cleanup
+     */
+    private static PatternCounter countPatterns(List<String> wlist1, List<String> wlist2, boolean same,
+                                                AlignmentOptions options, Checkpoint checkpoint) {
+        PairMatrix matrix = new PairMatrix(wlist1, wlist2, same, KEEP, options.getSample(), options.getSeed());
+        if (options.getSample() < 1)
+            System.err.println("Sampling " + options.getSample() + " of all pairs with seed " + options.getSeed());
+
+        // the rows of the shard to align
+        int first = matrix.shardStart(options.getShard(), options.getShards());
+        int last = matrix.shardStart(options.getShard() + 1, options.getShards());
+        if (options.getShards() > 1)
+            System.err.println("Aligning shard " + (options.getShard() + 1) + " of " + options.getShards()
+                    + ": rows " + first + " to " + last + " of " + matrix.rows());
+        return countPatterns(matrix, first, last, options, checkpoint);
+    }
 
-            // if memory threshold is reached, do cleanup to free space
-            if (r.totalMemory() - r.freeMemory() > threshold) {
-                cleanup(f, patternFrequencyTable);
-                f += CLEANUP_INCREASE;
+    /**
+     * Aligns all pairs in some rows of a matrix and counts the patterns found.
+     * @param matrix the pairs to align
+     * @param first first row (inclusive)
+     * @param last last row (exclusive)
+     * @param options the number of threads and the counting mode
+     * @param checkpoint the checkpoint to resume from and write to, null for no checkpoints
+     * @return a counter with the patterns and their frequencies, without any cleanup
+     */
+    private static PatternCounter countPatterns(PairMatrix matrix, int first, int last, AlignmentOptions options,
+                                                Checkpoint checkpoint) {
+        AlignmentStats stats = new AlignmentStats();
+        PatternCounter patternCounter;
+        if (checkpoint != null) {
+            patternCounter = alignWithCheckpoints(matrix, first, last, options, stats, checkpoint);
+        }
+        else if (options.getThreads() > 1) {
+            patternCounter = ParallelAlignment.align(matrix, first, last, options, stats);
+        }
+        else {
+            patternCounter = options.newCounter();
+            Aligner aligner = options.newAligner();
+            for (int i = first; i < last; i++)
+                matrix.alignRow(i, aligner, patternCounter, stats);
+        }
+        System.err.println(stats);
+        if (patternCounter.maxError() > 0)
+            System.err.println("Counted with " + options.getCounters() + " counters, frequencies are "
+                    + "underestimated by at most " + patternCounter.maxError());
+        return patternCounter;
+    }
+
+    /**
+     * Aligns all pairs in some rows of a matrix in batches of rows, which are aligned in
+     * parallel if more than one thread is requested. After a batch, a checkpoint with the
+     * patterns counted since the last checkpoint is written if the checkpoint interval
+     * has passed and the previous checkpoint has been written.
+     * Rows already aligned according to the checkpoint are skipped.
+     * @param matrix the pairs to align
+     * @param first first row (inclusive)
+     * @param last last row (exclusive)
+     * @param options the number of threads and the checkpoint interval
+     * @param stats the statistics to update
+     * @param checkpoint the checkpoint to resume from and write to
+     * @return a table with the patterns and their frequencies, without any cleanup
+     */
+    private static PatternTable alignWithCheckpoints(PairMatrix matrix, int first, int last, AlignmentOptions options,
+                                                     AlignmentStats stats, Checkpoint checkpoint) {
+        PatternTable patternFrequencyTable = checkpoint.table();
+        stats.add(checkpoint.stats());
+        if (checkpoint.cursor() > first)
+            System.err.println("Resuming after " + checkpoint.cursor() + " of " + matrix.rows() + " rows");
+
+        long batchPairs = matrix.pairs(first, last) / CHECKPOINT_BATCHES;
+        long interval = TimeUnit.SECONDS.toNanos(options.getCheckpointInterval());
+        long lastCheckpoint = System.nanoTime();
+        // patterns and statistics since the last checkpoint
+        PatternTable delta = new PatternTable();
+        AlignmentStats deltaStats = new AlignmentStats();
+        // the pool and its workers are kept for all batches
+        ParallelAlignment parallel = (options.getThreads() > 1) ? new ParallelAlignment(matrix, options) : null;
+        Aligner aligner = (parallel == null) ? options.newAligner() : null;
+
+        try {
+            for (int from = Math.max(first, checkpoint.cursor()); from < last; ) {
+                int to = from + 1;
+                while (to < last && matrix.pairs(from, to) < batchPairs)
+                    to++;
+                if (parallel != null)
+                    delta.addAll(parallel.align(from, to, deltaStats));
+                else
+                    for (int i = from; i < to; i++)
+                        matrix.alignRow(i, aligner, delta, deltaStats);
+                from = to;
+
+                // a checkpoint is postponed while the previous one is still being written
+                if (from == last
+                        || (System.nanoTime() - lastCheckpoint >= interval && !checkpoint.isWriting())) {
+                    // the checkpoint is written in the background, the delta is only read from now on
+                    checkpoint.append(from, delta, deltaStats);
+                    patternFrequencyTable.addAll(delta);
+                    stats.add(deltaStats);
+                    delta = new PatternTable();
+                    deltaStats = new AlignmentStats();
+                    lastCheckpoint = System.nanoTime();
+                }
             }
         }
+        finally {
+            if (parallel != null)
+                parallel.close();
+        }
+        try {
+            checkpoint.close();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        return patternFrequencyTable;
+    }
 
-        // do cleanup when finished
-        cleanup(f, patternFrequencyTable);
+    /**
+     * Does the cleanups at the end of an alignment run: first all patterns found
+     * at most MIN_FREQ times are removed, then all patterns with at most the
+     * average pattern frequency.
+     * @param patternFrequencyTable the table with the counted patterns
+     * @return the cleaned table
+     */
+    private static PatternTable finalCleanup(PatternTable patternFrequencyTable) {
+        // remove rare patterns
+        patternFrequencyTable.removeAtMost(MIN_FREQ);
 
         // final cleanup with threshold = average pattern frequency
-        double freqsum = 0;
-        for (int freq : patternFrequencyTable.values())
-            freqsum += freq;
-        cleanup(freqsum/patternFrequencyTable.size(), patternFrequencyTable);
+        double freqsum = patternFrequencyTable.totalFreq();
+        patternFrequencyTable.removeAtMost(freqsum/patternFrequencyTable.size());
 
         // return table
         return patternFrequencyTable;
     }
 
+    /**
+     * Scales the frequencies of a sampled run up to estimates for a run over all pairs.
+     * The cleanups are done before, on the frequencies actually found.
+     * @param patternFrequencyTable the table with the counted patterns
+     * @param sample the portion of the pairs that was aligned
+     * @return the scaled table
+     */
+    private static PatternTable scale(PatternTable patternFrequencyTable, double sample) {
+        if (sample < 1)
+            patternFrequencyTable.scale(1/sample);
+        return patternFrequencyTable;
+    }
+
+    /**
+     * Computes an approximate 95% confidence interval for the frequency of a pattern over
+     * all pairs from a sampled run. Every pair is in the sample with the same probability,
+     * so the frequency found in the sample is binomially distributed, which is
+     * approximated by a normal distribution. The lower bound is never below the
+     * frequency actually found.
+     * @param estimate the scaled frequency of the pattern
+     * @param sample the portion of the pairs that was aligned
+     * @return the lower and upper bound of the interval
+     */
+    public static long[] confidenceInterval(long estimate, double sample) {
+        double found = estimate * sample;
+        double deviation = CONFIDENCE_Z * Math.sqrt(found * (1 - sample)) / sample;
+        return new long[] {
+                Math.max(Math.round(found), Math.round(estimate - deviation)),
+                Math.round(estimate + deviation)};
+    }
+
+    /**
+     * Does the same cleanups as {@link #finalCleanup(PatternTable)} on merged runs of
+     * counts and writes the remaining patterns sorted by frequency, without holding
+     * more than the given number of patterns in memory.
+     * @param counts the merged counts, which are closed afterwards
+     * @param limit the number of patterns that may be held in memory
+     * @param sample the portion of the pairs that was aligned
+     * @param outfile the pattern file to write
+     * @throws IOException if a run or the pattern file cannot be read or written
+     */
+    private static void writeMerged(RunMerger counts, int limit, double sample, String outfile) throws IOException {
+        // first pass: remove rare patterns and sum up the remaining frequencies
+        Path merged = Files.createTempFile("patterns", ".run");
+        long patterns = 0;
+        double freqsum = 0;
+        try (RunMerger merger = counts;
+             RunWriter writer = new RunWriter(merged)) {
+            while (merger.next()) {
+                if (merger.count() > MIN_FREQ) {
+                    writer.write(merger.key(), 0, merger.length(), merger.count());
+                    patterns++;
+                    freqsum += merger.count();
+                }
+            }
+        }
+
+        // second pass: keep patterns above the average frequency, sorted by frequency,
+        // which is done by prefixing every pattern with its inverted frequency
+        double average = freqsum/patterns;
+        SpillingCounter byFreq = new SpillingCounter(limit);
+        char[] key = new char[64];
+        try (RunReader reader = new RunReader(merged)) {
+            while (reader.next()) {
+                if (reader.count() > average) {
+                    key = PatternTable.ensureCapacity(key, reader.length() + 2);
+                    int inverted = Integer.MAX_VALUE - reader.count();
+                    key[0] = (char) (inverted >>> 16);
+                    key[1] = (char) inverted;
+                    System.arraycopy(reader.key(), 0, key, 2, reader.length());
+                    byFreq.addEncoded(key, 0, reader.length() + 2, reader.count());
+                }
+            }
+        }
+        finally {
+            Files.deleteIfExists(merged);
+        }
+
+        try (RunMerger merger = byFreq.merge(true);
+             PrintWriter writ = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(outfile)), Charset.forName("UTF-8")))) {
+            while (merger.next())
+                writ.println(FileIO.formatPattern((int) Math.round(merger.count() / sample),
+                        PatternTable.decode(merger.key(), 2, merger.length() - 2), sample));
+        }
+    }
+
     /**
      * Aligns two tokens to find a transition pattern between the two, where at least
      * KEEP*shorterString.length characters must be same char substitutions.
@@ -125,89 +530,88 @@ public class SequenceAlignment {
      * the amount of same char substitutions
      */
     public static String findPattern(String a, String b, double mustKeep) {
-        int split1 = a.indexOf(':');
-        int split2 = b.indexOf(':');
-        String s1 = a.substring(0, split1);
-        String s2 = b.substring(0, split2);
-
-        // Levenshtein
-        int[][] T = new int[s1.length() + 1][s2.length() + 1];
+        return ALIGNER.get().findPattern(a, b, mustKeep);
+    }
 
-        for (int i = 0; i <= s1.length(); i++) {
-            T[i][0] = i;
-        }
-        for (int j = 0; j <= s2.length(); j++) {
-            T[0][j] = j;
-        }
+    /**
+     * Aligns two tokens to find the transition patterns between the two in both directions,
+     * i.e. the results of findPattern(a, b, mustKeep) and findPattern(b, a, mustKeep), with a
+     * single alignment table.
+     * @param a first token
+     * @param b second token
+     * @param mustKeep portion of shorter string that must be kept
+     * @return the pattern from a to b and the pattern from b to a, or an empty array if
+     * mustKeep*shorterString.length did not equal the amount of same char substitutions
+     */
+    public static String[] findPatterns(String a, String b, double mustKeep) {
+        return ALIGNER.get().findPatterns(a, b, mustKeep);
+    }
 
-        for (int i = 1; i <= s1.length(); i++) {
-            for (int j = 1; j <= s2.length(); j++) {
-                int cost = (s1.charAt(i - 1) == s2.charAt(j - 1)) ? 0 : 2;
-                T[i][j] = Math.min(Math.min(
-                        T[i - 1][j] + 1,
-                        T[i][j - 1] + 1),
-                        T[i - 1][j - 1] + cost);
-            }
-        }
+    /**
+     * Aligns two tokens with a given aligner to find a transition pattern between the
+     * two, where at least KEEP*shorterString.length characters must be same char
+     * substitutions. The result is the same as that of {@link #findPattern(String, String)}.
+     * @param a first token
+     * @param b second token
+     * @param aligner the aligner to use
+     * @return the pattern or an empty string if KEEP*shorterString.length did not equal
+     * the amount of same char substitutions
+     */
+    public static String findPattern(String a, String b, Aligner aligner) {
+        return aligner.findPattern(a, b, KEEP);
+    }
 
-        // used to construct the pattern inside the next loop
-        StringBuilder pattern = new StringBuilder();
-
-        // controls if a deletion occurs immediately before an insertion
-        // which would then be converted inside the next loop to a substitution
-        boolean justDeleted = false;
-        // flag to be used when the chars on input and on output tapes are the same
-        boolean justAppended = false;
-        // count the number of same char substitutions
-        int equal = 0;
-
-        // retrieve pattern
-        for (int i = s1.length(), j = s2.length(); i > 0 || j > 0; ) {
-            if (i > 0 && T[i][j] == T[i - 1][j] + 1) {
-                pattern.append(s1.charAt(--i) + "/- ");
-                justDeleted = true;
-                justAppended = false;
-            } else if (j > 0 && T[i][j] == T[i][j - 1] + 1) {
-                if ((pattern.toString().endsWith("- ")) && justDeleted) {
-                    pattern.replace(pattern.length() - 2, pattern.length(), s2.charAt(--j) + " ");
-                } else {
-                    pattern.append("-/" + s2.charAt(--j) + " ");
-                }
-                justDeleted = false;
-                justAppended = false;
-            } else if (i > 0 && j > 0 && T[i][j] == T[i - 1][j - 1]) {
-                if (!justAppended) pattern.append("./. ");
-                i--;
-                j--;
-                justDeleted = false;
-                justAppended = true;
-                equal++;
-            }
-        }
+    /**
+     * @param shorter length of the shorter token
+     * @param mustKeep portion of shorter string that must be kept
+     * @return the minimum number of same char substitutions for a pattern to be kept
+     */
+    static int minEqual(int shorter, double mustKeep) {
+        return (int) Math.floor(shorter * mustKeep) + 1;
+    }
 
-        // only keep pattern if at least mustKeep of the shorter string matches the other string
-        if (equal > Math.min(s1.length(), s2.length())*mustKeep)
-            return pattern
-                    .deleteCharAt(pattern.length()-1)
-                    .reverse()
-                    .append(" ")
-                    .append(b.substring(split2+1))
-                    .append("/")
-                    .append(a.substring(split1+1))
-                    .toString();
-        // else return empty string
-        return "";
+    /**
+     * Gets the symbols of a token in sorted order, which serves as a histogram
+     * of its symbols for {@link #mayKeep(char[], char[], double)}.
+     * @param token a token of the form WORD:POS
+     * @return the sorted symbols of the word
+     */
+    static char[] sortedSymbols(String token) {
+        char[] symbols = token.substring(0, token.indexOf(':')).toCharArray();
+        Arrays.sort(symbols);
+        return symbols;
     }
 
     /**
-     * Removes all patterns with a frequency below the given threshold and
-     * suggests garbage collection afterwards.
-     * @param threshold frequency threshold for removal
+     * Checks cheap upper bounds on the number of same char substitutions between
+     * two tokens: there can be no more of them than the shorter token is long, and
+     * no more than the two tokens have symbols in common. If this returns false,
+     * findPattern would return an empty string for these tokens.
+     * @param symbols1 the sorted symbols of the first token
+     * @param symbols2 the sorted symbols of the second token
+     * @param mustKeep portion of shorter string that must be kept
+     * @return false if the pair can certainly not yield a pattern
      */
-    private static void cleanup(double threshold, TObjectIntMap<String> map) {
-        for (Object pattern : map.keys())
-            if (map.get(pattern) <= threshold)
-                map.remove(pattern);
-        System.gc();
+    static boolean mayKeep(char[] symbols1, char[] symbols2, double mustKeep) {
+        int shorter = Math.min(symbols1.length, symbols2.length);
+        int needed = minEqual(shorter, mustKeep);
+        // length bound
+        if (needed > shorter)
+            return false;
+        // histogram bound
+        int shared = 0;
+        for (int x = 0, y = 0; x < symbols1.length && y < symbols2.length; ) {
+            if (symbols1[x] == symbols2[y]) {
+                if (++shared >= needed)
+                    return true;
+                x++;
+                y++;
+            }
+            else if (symbols1[x] < symbols2[y])
+                x++;
+            else
+                y++;
+        }
+        return false;
     }
 }
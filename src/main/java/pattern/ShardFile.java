@@ -0,0 +1,121 @@
+package pattern;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A file with the partial pattern counts of one shard of an alignment run, see
+ * {@link AlignmentOptions#setShard(int, int)}. The file starts with a header that
+ * identifies the run (the number of words, a fingerprint of the words and the POS
+ * pairs, the seed and the sample) and the shard, followed by the exact, uncleaned counts as a run sorted
+ * by the encoded patterns. The files of all shards of a run are merged as runs, so a
+ * merge never holds more than one record per shard in memory.
+ */
+class ShardFile {
+
+    private static final int MAGIC = 0x50415231;
+    // size of the header in bytes
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4 + 4;
+
+    /**
+     * Writes the counts of a shard to a file.
+     * @param file the file to write
+     * @param words the words of the run
+     * @param options the options of the run, which define the shard
+     * @param counter the exact counts of the shard
+     * @throws IOException if the file cannot be written
+     */
+    static void write(Path file, Collection<String> words, AlignmentOptions options, PatternCounter counter)
+            throws IOException {
+        List<String> wlist = new ArrayList<>(words);
+        Collections.sort(wlist);
+        try (RunWriter writer = new RunWriter(file)) {
+            writer.writeInt(MAGIC);
+            writer.writeInt(wlist.size());
+            writer.writeLong(fingerprint(wlist, options));
+            writer.writeLong(options.getSeed());
+            writer.writeLong(Double.doubleToLongBits(options.getSample()));
+            writer.writeInt(options.getShard());
+            writer.writeInt(options.getShards());
+            if (counter instanceof SpillingCounter) {
+                try (RunMerger merger = ((SpillingCounter) counter).merge(true)) {
+                    while (merger.next())
+                        writer.write(merger.key(), 0, merger.length(), merger.count());
+                }
+            }
+            else
+                counter.toTable().writeRun(writer);
+        }
+    }
+
+    /**
+     * @param wlist the sorted words of the run
+     * @param options the options of the run
+     * @return a fingerprint of the words and of the POS pairs the run is restricted to
+     */
+    private static long fingerprint(List<String> wlist, AlignmentOptions options) {
+        long fingerprint = Checkpoint.fingerprint(wlist);
+        if (options.getPOSPairs() != null)
+            fingerprint = 31 * fingerprint + Checkpoint.fingerprint(new ArrayList<>(options.getPOSPairs()));
+        return fingerprint;
+    }
+
+    /**
+     * Checks that some files are the shard files of all shards of one run.
+     * @param files the shard files
+     * @return the sample of the run
+     * @throws IOException if a file cannot be read, or if the files do not belong to
+     * the same run or do not cover all of its shards
+     */
+    static double check(List<Path> files) throws IOException {
+        long[] run = null;
+        boolean[] found = null;
+        for (Path file : files) {
+            long[] header = new long[5];
+            int shard;
+            try (RunReader reader = new RunReader(file)) {
+                if (reader.readInt() != MAGIC)
+                    throw new IOException("Not a shard file: " + file);
+                header[0] = reader.readInt();
+                header[1] = reader.readLong();
+                header[2] = reader.readLong();
+                header[3] = reader.readLong();
+                shard = reader.readInt();
+                header[4] = reader.readInt();
+            }
+            if (run == null) {
+                run = header;
+                found = new boolean[(int) header[4]];
+            }
+            else if (header[0] != run[0] || header[1] != run[1])
+                throw new IOException("Shard file " + file + " was written for other data or POS pairs");
+            else if (header[2] != run[2] || header[3] != run[3])
+                throw new IOException("Shard file " + file + " was written with another seed or sample");
+            else if (header[4] != run[4])
+                throw new IOException("Shard file " + file + " was written for another number of shards");
+            if (found[shard])
+                throw new IOException("Shard " + (shard + 1) + " is given twice");
+            found[shard] = true;
+        }
+        if (run == null)
+            throw new IOException("No shard files given");
+        for (int shard = 0; shard < found.length; shard++)
+            if (!found[shard])
+                throw new IOException("Shard " + (shard + 1) + " of " + found.length + " is missing");
+        return Double.longBitsToDouble(run[3]);
+    }
+
+    /**
+     * Opens a merger over the counts of some shard files.
+     * @param files the shard files
+     * @return the merger, which leaves the files in place
+     * @throws IOException if a file cannot be read
+     */
+    static RunMerger merge(List<Path> files) throws IOException {
+        return new RunMerger(files, HEADER_SIZE, false);
+    }
+}
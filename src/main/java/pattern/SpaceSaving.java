@@ -0,0 +1,232 @@
+package pattern;
+
+import java.util.Arrays;
+
+/**
+ * A Space-Saving summary (Metwally et al.) which counts patterns with a fixed number
+ * of counters. As long as there are free counters, every pattern is counted exactly.
+ * Once all counters are in use, a new pattern takes over the counter with the lowest
+ * count m, starts at m plus its own frequency and remembers m as its error.
+ * <p>
+ * Error bounds, with N being the sum of all frequencies added and k the number of
+ * counters: every count overestimates the true frequency by at most its error, which
+ * is at most the minimum count and thus at most N/k, and every pattern with a true
+ * frequency above N/k has a counter. The summary reports every count minus its error,
+ * which never exceeds the true frequency and falls short of it by at most N/k, so
+ * patterns that only inherited the count of an evicted pattern do not show up as
+ * frequent. When summaries are merged via {@link #addAll(PatternCounter)}, the
+ * shortfalls add up, so the merged summaries of several threads underestimate any
+ * frequency by at most 2N/k. {@link #maxError()} gives the actual bound.
+ * A summary is not thread-safe.
+ */
+class SpaceSaving implements PatternCounter {
+
+    private static final int EMPTY = -1;
+
+    // number of counters
+    private final int capacity;
+    // number of counters in use
+    private int size;
+
+    // the encoded pattern, its hash code, count and error of every counter
+    private final char[][] keys;
+    private final int[] keyLengths;
+    private final int[] hashes;
+    private final int[] counts;
+    private final int[] errors;
+
+    // min-heap of counters by count and the position of every counter in the heap
+    private final int[] heap;
+    private final int[] position;
+
+    // open addressing hash table of counters
+    private final int[] slots;
+
+    // error inherited from merged summaries
+    private long mergedError;
+
+    // buffer for encoding patterns
+    private char[] key;
+
+    /**
+     * @param capacity the number of counters, i.e. the maximum number of patterns kept
+     */
+    SpaceSaving(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Number of counters must be positive: " + capacity);
+        this.capacity = capacity;
+        keys = new char[capacity][];
+        keyLengths = new int[capacity];
+        hashes = new int[capacity];
+        counts = new int[capacity];
+        errors = new int[capacity];
+        heap = new int[capacity];
+        position = new int[capacity];
+        slots = new int[Integer.highestOneBit(Math.max(2, capacity * 2) - 1) << 1];
+        Arrays.fill(slots, EMPTY);
+        key = new char[64];
+    }
+
+    @Override
+    public void add(char[] pattern, int length, int transitions, int freq) {
+        key = PatternTable.ensureCapacity(key, PatternTable.encodedLength(length, transitions));
+        int keyLength = PatternTable.encode(pattern, length, transitions, key);
+        addEncoded(key, 0, keyLength, freq);
+    }
+
+    @Override
+    public void addEncoded(char[] encoded, int from, int length, int freq) {
+        int hash = PatternTable.hash(encoded, from, length);
+        int slot = find(encoded, from, length, hash);
+        int c = slots[slot];
+        if (c != EMPTY) {
+            counts[c] += freq;
+            siftDown(position[c]);
+            return;
+        }
+        if (size < capacity) {
+            c = size++;
+            counts[c] = freq;
+            errors[c] = 0;
+            heap[c] = c;
+            position[c] = c;
+            store(c, encoded, from, length, hash, slot);
+            siftUp(c);
+            return;
+        }
+        // take over the counter with the lowest count
+        c = heap[0];
+        int min = counts[c];
+        remove(c);
+        counts[c] = min + freq;
+        errors[c] = min;
+        store(c, encoded, from, length, hash, find(encoded, from, length, hash));
+        siftDown(0);
+    }
+
+    /**
+     * Adds all counts of another counter to this one. The error of the other counter
+     * is added to the error of this summary.
+     * @param other the other counter
+     */
+    @Override
+    public void addAll(PatternCounter other) {
+        other.addTo(this);
+        mergedError += other.maxError();
+    }
+
+    /**
+     * Adds the guaranteed count of every pattern, i.e. its count minus its error, to
+     * another counter. Patterns without any guaranteed count are left out.
+     * @param target the other counter
+     */
+    @Override
+    public void addTo(PatternCounter target) {
+        for (int c = 0; c < size; c++)
+            if (counts[c] > errors[c])
+                target.addEncoded(keys[c], 0, keyLengths[c], counts[c] - errors[c]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the maximum underestimation of any frequency, i.e. the minimum count once
+     * all counters are in use, plus the errors of all merged summaries
+     */
+    @Override
+    public long maxError() {
+        return mergedError + ((size < capacity) ? 0 : counts[heap[0]]);
+    }
+
+    @Override
+    public PatternTable toTable() {
+        PatternTable table = new PatternTable(size);
+        addTo(table);
+        return table;
+    }
+
+    /**
+     * @return the slot of the given pattern or the empty slot where it would be stored
+     */
+    private int find(char[] encoded, int from, int length, int hash) {
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int c = slots[slot];
+            if (c == EMPTY || (hashes[c] == hash && equals(c, encoded, from, length)))
+                return slot;
+        }
+    }
+
+    private boolean equals(int c, char[] encoded, int from, int length) {
+        if (keyLengths[c] != length)
+            return false;
+        char[] k = keys[c];
+        for (int i = 0; i < length; i++)
+            if (k[i] != encoded[from + i])
+                return false;
+        return true;
+    }
+
+    private void store(int c, char[] encoded, int from, int length, int hash, int slot) {
+        if (keys[c] == null || keys[c].length < length)
+            keys[c] = new char[Math.max(length, 16)];
+        System.arraycopy(encoded, from, keys[c], 0, length);
+        keyLengths[c] = length;
+        hashes[c] = hash;
+        slots[slot] = c;
+    }
+
+    /**
+     * Removes a counter from the hash table, moving back the following entries of its
+     * probe sequence so that no tombstones are needed.
+     */
+    private void remove(int c) {
+        int mask = slots.length - 1;
+        int slot = find(keys[c], 0, keyLengths[c], hashes[c]);
+        slots[slot] = EMPTY;
+        for (int next = (slot + 1) & mask; slots[next] != EMPTY; next = (next + 1) & mask) {
+            int home = hashes[slots[next]] & mask;
+            // move the entry if its home is not cyclically within (slot, next]
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                slots[slot] = slots[next];
+                slots[next] = EMPTY;
+                slot = next;
+            }
+        }
+    }
+
+    private void siftUp(int i) {
+        int c = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (counts[heap[parent]] <= counts[c])
+                break;
+            heap[i] = heap[parent];
+            position[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = c;
+        position[c] = i;
+    }
+
+    private void siftDown(int i) {
+        int c = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]])
+                child++;
+            if (counts[c] <= counts[heap[child]])
+                break;
+            heap[i] = heap[child];
+            position[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = c;
+        position[c] = i;
+    }
+}
@@ -0,0 +1,137 @@
+package pattern;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An exact counter for more patterns than fit into memory. Patterns are counted in a
+ * {@link PatternTable} until it holds a given number of patterns; the table is then
+ * spilled to a temporary file as a run sorted by the encoded patterns and counting
+ * continues in an empty table. The runs are merged with a {@link RunMerger}, which
+ * adds up the counts of a pattern from all runs.
+ * A counter is not thread-safe.
+ */
+class SpillingCounter implements PatternCounter {
+
+    // number of patterns at which the table is spilled
+    private final int limit;
+    private PatternTable table;
+    // the spilled runs
+    private final List<Path> runs;
+
+    /**
+     * @param limit the number of patterns kept in memory before they are spilled
+     */
+    SpillingCounter(int limit) {
+        if (limit < 1)
+            throw new IllegalArgumentException("Spill limit must be positive: " + limit);
+        this.limit = limit;
+        this.table = new PatternTable(limit);
+        this.runs = new ArrayList<>();
+    }
+
+    @Override
+    public void add(char[] pattern, int length, int transitions, int freq) {
+        table.add(pattern, length, transitions, freq);
+        if (table.size() >= limit)
+            spill();
+    }
+
+    @Override
+    public void addEncoded(char[] encoded, int from, int length, int freq) {
+        table.addEncoded(encoded, from, length, freq);
+        if (table.size() >= limit)
+            spill();
+    }
+
+    /**
+     * Adds all counts of another counter to this one. The runs of another spilling
+     * counter are taken over without reading them.
+     * @param other the other counter
+     */
+    @Override
+    public void addAll(PatternCounter other) {
+        if (other instanceof SpillingCounter) {
+            SpillingCounter spilling = (SpillingCounter) other;
+            spilling.spill();
+            runs.addAll(spilling.runs);
+            spilling.runs.clear();
+        }
+        else
+            other.addTo(this);
+    }
+
+    /**
+     * Adds the merged counts of all runs and the table to another counter.
+     * @param target the other counter
+     */
+    @Override
+    public void addTo(PatternCounter target) {
+        try (RunMerger merger = merge(false)) {
+            while (merger.next())
+                target.addEncoded(merger.key(), 0, merger.length(), merger.count());
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return the number of patterns in memory
+     */
+    @Override
+    public int size() {
+        return table.size();
+    }
+
+    @Override
+    public long maxError() {
+        return 0;
+    }
+
+    @Override
+    public PatternTable toTable() {
+        PatternTable result = new PatternTable();
+        addTo(result);
+        return result;
+    }
+
+    /**
+     * Spills the remaining table and opens a merger over all runs.
+     * @param delete whether the runs are deleted when the merger is closed, after which
+     *               this counter is empty
+     * @return the merger
+     * @throws IOException if a run cannot be read
+     */
+    RunMerger merge(boolean delete) throws IOException {
+        spill();
+        RunMerger merger = new RunMerger(runs, delete);
+        if (delete)
+            runs.clear();
+        return merger;
+    }
+
+    /**
+     * Writes the table to a new run and clears it.
+     */
+    private void spill() {
+        if (table.size() == 0)
+            return;
+        try {
+            Path run = Files.createTempFile("patterns", ".run");
+            try (RunWriter writer = new RunWriter(run)) {
+                table.writeRun(writer);
+            }
+            runs.add(run);
+            table = new PatternTable(limit);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package pattern;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A file with the state of an exact alignment run over all pairs, from which the run
+ * can be continued when new words are added, see {@link AlignmentOptions#setState(String)}.
+ * The file holds the number of aligned words, the words as records with count 0, and
+ * the exact pattern counts before any cleanup as records of encoded patterns.
+ */
+class StateFile {
+
+    private static final int MAGIC = 0x53544131;
+
+    /**
+     * Reads a state file.
+     * @param file the state file
+     * @param counter the counter to add the pattern counts to
+     * @return the words aligned so far
+     * @throws IOException if the file cannot be read or is no state file
+     */
+    static Set<String> read(Path file, PatternCounter counter) throws IOException {
+        try (RunReader reader = new RunReader(file)) {
+            if (reader.readInt() != MAGIC)
+                throw new IOException("Not a state file: " + file);
+            int size = reader.readInt();
+            Set<String> words = new HashSet<>(size * 2);
+            for (int w = 0; w < size; w++) {
+                if (!reader.next())
+                    throw new IOException("Truncated state file: " + file);
+                words.add(new String(reader.key(), 0, reader.length()));
+            }
+            while (reader.next())
+                counter.addEncoded(reader.key(), 0, reader.length(), reader.count());
+            return words;
+        }
+    }
+
+    /**
+     * Writes a state file. The file is first written next to the target and then moved
+     * over it, so that an interrupted write leaves the previous state intact.
+     * @param file the state file
+     * @param words the words aligned so far
+     * @param counter the exact pattern counts of all pairs of the words, which remain
+     *                in the counter
+     * @throws IOException if the file cannot be written
+     */
+    static void write(Path file, Collection<String> words, PatternCounter counter) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (RunWriter writer = new RunWriter(temporary)) {
+            writer.writeInt(MAGIC);
+            writer.writeInt(words.size());
+            for (String word : words)
+                writer.write(word.toCharArray(), 0, word.length(), 0);
+            if (counter instanceof SpillingCounter) {
+                try (RunMerger merger = ((SpillingCounter) counter).merge(false)) {
+                    while (merger.next())
+                        writer.write(merger.key(), 0, merger.length(), merger.count());
+                }
+            }
+            else
+                counter.toTable().writeRecords(writer);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
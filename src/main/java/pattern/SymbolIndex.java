@@ -0,0 +1,253 @@
+package pattern;
+
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+import java.util.Arrays;
+
+/**
+ * An inverted index over the symbols of the words of a pair matrix, which finds
+ * the partners of a word that share enough symbols with it to possibly yield a
+ * pattern, without looking at all other words.
+ * <p>
+ * Every word is seen as a set of tokens, where the k-th occurrence of a symbol in
+ * the word is a token of its own, so that the overlap of two token sets is the
+ * number of symbols two words have in common, i.e. the histogram bound of
+ * {@link SequenceAlignment#mayKeep(char[], char[], double)}. For a pattern, the
+ * overlap must be at least t = minEqual(s), where s is the size of the shorter
+ * word. If all tokens are ordered the same way, any s-t+1 tokens of the shorter
+ * word then contain a token of the longer word (prefix filtering). The tokens are
+ * ordered by their frequency, and only the rarest s-t+1 tokens of the shorter word
+ * are looked up, which skips the long posting lists of common symbols.
+ * <p>
+ * The index contains the words of the second list of the matrix, the words of the
+ * first list are looked up. Larger q-grams than single symbols do not help here:
+ * a pattern only needs a third of the shorter word in common, which gives no
+ * positive lower bound on the number of shared q-grams for q > 1.
+ */
+class SymbolIndex {
+
+    // the tokens of every word as ranks, sorted from rare to common
+    private final int[][] tokens1;
+    private final int[][] tokens2;
+    // the number of tokens of every word of the second list
+    private final int[] sizes2;
+    // for every token rank, the sorted words of the second list which contain it
+    private final int[][] postings;
+    // for every token rank, the sorted words of the second list which contain it in their prefix
+    private final int[][] prefixPostings;
+    // portion of the shorter word that must be kept
+    private final double mustKeep;
+
+    // the marks and candidate buffer of each thread
+    private final ThreadLocal<Probe> probes;
+
+    /**
+     * @param symbols1 the sorted symbols of the words of the first list
+     * @param symbols2 the sorted symbols of the words of the second list, may be the same array
+     * @param mustKeep portion of the shorter word that must be kept
+     */
+    SymbolIndex(char[][] symbols1, char[][] symbols2, double mustKeep) {
+        this.mustKeep = mustKeep;
+
+        // number the tokens and count how many words of the second list contain them
+        TLongIntMap ids = new TLongIntHashMap();
+        int[] counts = new int[16];
+        for (char[] symbols : symbols2) {
+            for (int k = 0; k < symbols.length; k++) {
+                int id = tokenId(ids, symbols, k);
+                if (id == counts.length)
+                    counts = Arrays.copyOf(counts, counts.length * 2);
+                counts[id]++;
+            }
+        }
+        if (symbols1 != symbols2)
+            for (char[] symbols : symbols1)
+                for (int k = 0; k < symbols.length; k++)
+                    tokenId(ids, symbols, k);
+
+        // rank the tokens from rare to common
+        int tokens = ids.size();
+        long[] order = new long[tokens];
+        for (int id = 0; id < tokens; id++)
+            order[id] = ((long) (id < counts.length ? counts[id] : 0) << 32) | id;
+        Arrays.sort(order);
+        int[] rank = new int[tokens];
+        for (int r = 0; r < tokens; r++)
+            rank[(int) order[r]] = r;
+
+        this.tokens2 = rankedTokens(symbols2, ids, rank);
+        this.tokens1 = (symbols1 == symbols2) ? tokens2 : rankedTokens(symbols1, ids, rank);
+        this.sizes2 = new int[tokens2.length];
+        for (int j = 0; j < tokens2.length; j++)
+            sizes2[j] = tokens2[j].length;
+
+        // build the posting lists
+        int[] sizes = new int[tokens];
+        int[] prefixSizes = new int[tokens];
+        for (int[] word : tokens2) {
+            int prefix = prefixLength(word.length);
+            for (int k = 0; k < word.length; k++) {
+                sizes[word[k]]++;
+                if (k < prefix)
+                    prefixSizes[word[k]]++;
+            }
+        }
+        postings = new int[tokens][];
+        prefixPostings = new int[tokens][];
+        for (int r = 0; r < tokens; r++) {
+            postings[r] = new int[sizes[r]];
+            prefixPostings[r] = new int[prefixSizes[r]];
+        }
+        Arrays.fill(sizes, 0);
+        Arrays.fill(prefixSizes, 0);
+        for (int j = 0; j < tokens2.length; j++) {
+            int[] word = tokens2[j];
+            int prefix = prefixLength(word.length);
+            for (int k = 0; k < word.length; k++) {
+                postings[word[k]][sizes[word[k]]++] = j;
+                if (k < prefix)
+                    prefixPostings[word[k]][prefixSizes[word[k]]++] = j;
+            }
+        }
+
+        int size2 = tokens2.length;
+        this.probes = ThreadLocal.withInitial(() -> new Probe(size2));
+    }
+
+    /**
+     * @return the id of the k-th of the sorted symbols as token, a new id if it is new
+     */
+    private static int tokenId(TLongIntMap ids, char[] symbols, int k) {
+        // number of occurrences of the symbol before k
+        int occurrence = 0;
+        while (occurrence < k && symbols[k - occurrence - 1] == symbols[k])
+            occurrence++;
+        long key = ((long) symbols[k] << 32) | occurrence;
+        int id = ids.get(key);
+        if (id == ids.getNoEntryValue() && !ids.containsKey(key)) {
+            id = ids.size();
+            ids.put(key, id);
+        }
+        return id;
+    }
+
+    private static int[][] rankedTokens(char[][] symbols, TLongIntMap ids, int[] rank) {
+        int[][] tokens = new int[symbols.length][];
+        for (int i = 0; i < symbols.length; i++) {
+            tokens[i] = new int[symbols[i].length];
+            for (int k = 0; k < symbols[i].length; k++)
+                tokens[i][k] = rank[tokenId(ids, symbols[i], k)];
+            Arrays.sort(tokens[i]);
+        }
+        return tokens;
+    }
+
+    /**
+     * @param size the size of the shorter word of a pair
+     * @return the number of rarest tokens of the shorter word of which at least one
+     * must be in the longer word
+     */
+    private int prefixLength(int size) {
+        return size - SequenceAlignment.minEqual(size, mustKeep) + 1;
+    }
+
+    /**
+     * Finds all words of the second list from a given index on that may share enough
+     * symbols with a word of the first list to pass the histogram bound. The returned
+     * buffer is owned by the current thread and overwritten by the next call.
+     * @param i the index of the word in the first list
+     * @param from the first index in the second list to consider
+     * @return the candidates, sorted by their index in the second list
+     */
+    Probe candidates(int i, int from) {
+        Probe probe = probes.get();
+        probe.clear();
+        int[] word = tokens1[i];
+        int size = word.length;
+        // partners at least as long: one of the rarest tokens of this word is in the partner
+        for (int k = 0; k < prefixLength(size); k++) {
+            int[] words = postings[word[k]];
+            for (int p = start(words, from); p < words.length; p++)
+                if (sizes2[words[p]] >= size)
+                    probe.add(words[p]);
+        }
+        // shorter partners: one of their rarest tokens is in this word
+        for (int k = 0; k < size; k++) {
+            int[] words = prefixPostings[word[k]];
+            for (int p = start(words, from); p < words.length; p++)
+                if (sizes2[words[p]] < size)
+                    probe.add(words[p]);
+        }
+        probe.sort();
+        return probe;
+    }
+
+    /**
+     * @return the position of the first word in a posting list which is at least from
+     */
+    private static int start(int[] words, int from) {
+        if (from == 0)
+            return 0;
+        int p = Arrays.binarySearch(words, from);
+        return (p < 0) ? -p - 1 : p;
+    }
+
+    /**
+     * The candidates of a word, as a sorted list and as marks for lookup.
+     */
+    static class Probe {
+
+        // mark of every word of the second list, words marked with the current generation are candidates
+        private final int[] marks;
+        private int generation;
+        private int[] candidates;
+        private int size;
+
+        private Probe(int words) {
+            marks = new int[words];
+            candidates = new int[16];
+        }
+
+        private void clear() {
+            generation++;
+            size = 0;
+        }
+
+        private void add(int j) {
+            if (marks[j] != generation) {
+                marks[j] = generation;
+                if (size == candidates.length)
+                    candidates = Arrays.copyOf(candidates, size * 2);
+                candidates[size++] = j;
+            }
+        }
+
+        private void sort() {
+            Arrays.sort(candidates, 0, size);
+        }
+
+        /**
+         * @return the number of candidates
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * @param k a position in the list of candidates
+         * @return the index of the k-th candidate in the second list
+         */
+        int get(int k) {
+            return candidates[k];
+        }
+
+        /**
+         * @param j the index of a word in the second list
+         * @return whether the word is a candidate
+         */
+        boolean contains(int j) {
+            return marks[j] == generation;
+        }
+    }
+}
@@ -3,6 +3,9 @@ package util;
 import gnu.trove.map.TObjectIntMap;
 import gnu.trove.map.hash.TObjectIntHashMap;
 import pattern.Pattern;
+import pattern.PatternStore;
+import pattern.PatternTable;
+import pattern.SequenceAlignment;
 
 import java.io.*;
 import java.nio.charset.Charset;
@@ -27,6 +30,51 @@ public class FileIO {
         }
     }
 
+    /**
+     * Prints a pattern table sorted by frequencies from high to low in the format
+     * frequency -tabstop- pattern (i.e. without labels). This is where the pattern
+     * strings are created from the table.
+     * @param patterns the pattern table to sort and print
+     * @param outfile the desired output file
+     */
+    public static void writePatterns(PatternTable patterns, String outfile) {
+        writePatterns(patterns, 1, outfile);
+    }
+
+    /**
+     * Prints a pattern table sorted by frequencies from high to low in the format
+     * frequency -tabstop- pattern (i.e. without labels). If the frequencies are
+     * estimated from a sample of the pairs, the lower and upper bound of the
+     * confidence interval of each frequency are appended, separated by tabstops.
+     * @param patterns the pattern table to sort and print
+     * @param sample the portion of the pairs that was aligned
+     * @param outfile the desired output file
+     */
+    public static void writePatterns(PatternTable patterns, double sample, String outfile) {
+        try (PrintWriter writ = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(outfile)), Charset.forName("UTF-8")))) {
+            for (int id : patterns.sortedByFreq())
+                writ.println(formatPattern(patterns.getFreq(id), patterns.getPattern(id), sample));
+        }
+        catch (FileNotFoundException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Formats a line of a pattern file, see {@link #writePatterns(PatternTable, double, String)}.
+     * @param freq the frequency of the pattern
+     * @param pattern the pattern
+     * @param sample the portion of the pairs that was aligned
+     * @return the line
+     */
+    public static String formatPattern(int freq, String pattern, double sample) {
+        if (sample >= 1)
+            return freq + "\t" + pattern;
+        long[] interval = SequenceAlignment.confidenceInterval(freq, sample);
+        return freq + "\t" + pattern + "\t" + interval[0] + "\t" + interval[1];
+    }
+
     /**
      * Prints a string-integer map sorted by values from high to low in the format
      * label -tabstop- value -tabstop- string.
@@ -103,6 +151,21 @@ public class FileIO {
 //        return sortedByValues;
 //    }
 
+    /**
+     * Converts a pattern file in text format into a {@link PatternStore}.
+     * @param textfile the pattern file
+     * @param storefile the pattern store to write
+     */
+    public static void writePatternStore(String textfile, String storefile) {
+        try {
+            PatternStore.fromText(textfile, storefile);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
     /**
      * Reads a data file into a set of strings with the format <lemma>:<pos>
      * @param file the data file
@@ -162,16 +225,25 @@ public class FileIO {
     }
 
     /**
-     * Reads a simple pattern file without labels into a map.
+     * Reads a simple pattern file without labels into a map. The file is either a text
+     * file or a {@link PatternStore}.
      * @param file the pattern file
      * @return a map from patterns to frequencies
      */
     public static TObjectIntMap<String> readPatterns(String file) {
         TObjectIntMap<String> patterns = new TObjectIntHashMap<>();
-        try(BufferedReader read = new BufferedReader(new InputStreamReader(new FileInputStream(new File(file)), "UTF-8"))) {
-            for (String line = read.readLine(); line != null; line = read.readLine()) {
-                String[] pattern = line.split("\t");
-                patterns.put(pattern[1], Integer.parseInt(pattern[0]));
+        try {
+            if (PatternStore.isStore(file)) {
+                PatternStore store = PatternStore.open(file);
+                for (int i = 0; i < store.size(); i++)
+                    patterns.put(store.getPattern(i), store.getFreq(i));
+                return patterns;
+            }
+            try (BufferedReader read = new BufferedReader(new InputStreamReader(new FileInputStream(new File(file)), "UTF-8"))) {
+                for (String line = read.readLine(); line != null; line = read.readLine()) {
+                    String[] pattern = line.split("\t");
+                    patterns.put(pattern[1], Integer.parseInt(pattern[0]));
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -181,16 +253,21 @@ public class FileIO {
     }
 
     /**
-     * Reads a pattern file with labels into a set of patterns.
+     * Reads a pattern file with labels into a set of patterns. The file is either a text
+     * file or a {@link PatternStore}, which is mapped instead of parsed.
      * @param file the pattern file
      * @return a set of labeled patterns with frequencies
      */
     public static Set<Pattern> readPatternsWithLabels(String file) {
         Set<Pattern> patterns = new HashSet<>();
-        try(BufferedReader read = new BufferedReader(new InputStreamReader(new FileInputStream(new File(file)), "UTF-8"))) {
-            for (String line = read.readLine(); line != null; line = read.readLine()) {
-                String[] pattern = line.split("\t");
-                patterns.add(new Pattern(pattern[2], Integer.parseInt(pattern[1]), pattern[0]));
+        try {
+            if (PatternStore.isStore(file))
+                return PatternStore.readLabelledPatterns(file);
+            try (BufferedReader read = new BufferedReader(new InputStreamReader(new FileInputStream(new File(file)), "UTF-8"))) {
+                for (String line = read.readLine(); line != null; line = read.readLine()) {
+                    String[] pattern = line.split("\t");
+                    patterns.add(new Pattern(pattern[2], Integer.parseInt(pattern[1]), pattern[0]));
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -0,0 +1,102 @@
+package util;
+
+import gnu.trove.map.TCharShortMap;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TCharShortHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * Encodes tokens of the form WORD:POS once, so that loops that compare many tokens
+ * can work on arrays of small codes instead of calling charAt, substring and indexOf
+ * on strings. Every symbol of a word is mapped to a dense short code and every POS
+ * to an int id, both numbered from 0 in the order in which they are first seen, so
+ * that codes can index small tables for transcription alphabets of a few hundred
+ * symbols. Codes are added as new symbols come up and never change.
+ */
+public class Lexicon {
+
+    // value for symbols without a code
+    private static final short NO_CODE = -1;
+
+    private final TCharShortMap codes;
+    private final TObjectIntMap<String> posIds;
+
+    public Lexicon() {
+        codes = new TCharShortHashMap(64, 0.5f, (char) 0, NO_CODE);
+        posIds = new TObjectIntHashMap<>(16, 0.5f, -1);
+    }
+
+    /**
+     * @param token a token of the form WORD:POS
+     * @return the codes of the symbols of the word
+     */
+    public short[] encodeWord(String token) {
+        int split = token.indexOf(':');
+        short[] word = new short[split];
+        for (int i = 0; i < split; i++)
+            word[i] = code(token.charAt(i));
+        return word;
+    }
+
+    /**
+     * @param token a token of the form WORD:POS
+     * @return the id of the POS
+     */
+    public int encodePOS(String token) {
+        return posId(token.substring(token.indexOf(':') + 1));
+    }
+
+    /**
+     * @param symbol a symbol
+     * @return the code of the symbol, which is added if it is new
+     */
+    public short code(char symbol) {
+        short code = codes.get(symbol);
+        if (code == NO_CODE) {
+            if (codes.size() > Short.MAX_VALUE)
+                throw new IllegalStateException("More than " + (Short.MAX_VALUE + 1) + " symbols");
+            code = (short) codes.size();
+            codes.put(symbol, code);
+        }
+        return code;
+    }
+
+    /**
+     * Looks up the code of a symbol without adding it, so that many threads can look up
+     * codes at the same time as long as none adds codes.
+     * @param symbol a symbol
+     * @return the code of the symbol, or -1 if it has none
+     */
+    public short find(char symbol) {
+        return codes.get(symbol);
+    }
+
+    /**
+     * Looks up the id of a POS without adding it, like {@link #find(char)}.
+     * @param pos a POS
+     * @return the id of the POS, or -1 if it has none
+     */
+    public int findPOS(String pos) {
+        return posIds.get(pos);
+    }
+
+    /**
+     * @param pos a POS
+     * @return the id of the POS, which is added if it is new
+     */
+    public int posId(String pos) {
+        int id = posIds.get(pos);
+        if (id < 0) {
+            id = posIds.size();
+            posIds.put(pos, id);
+        }
+        return id;
+    }
+
+    /**
+     * @return the number of symbols, i.e. the highest code plus one
+     */
+    public int symbols() {
+        return codes.size();
+    }
+}
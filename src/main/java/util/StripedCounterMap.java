@@ -0,0 +1,148 @@
+package util;
+
+import gnu.trove.iterator.TObjectIntIterator;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A map from keys to int counts to which many threads can add at the same time.
+ * The keys are spread over a fixed number of stripes by their hash, and every stripe
+ * is a Trove map guarded by a lock of its own, so threads only wait for each other
+ * if they add to the same stripe at the same moment, and there is no global lock.
+ * Threads that add many counts should collect them in a private map first and add it
+ * with {@link #addAll(TObjectIntMap)}, which takes the lock of every stripe only once.
+ * @param <K> the type of the keys
+ */
+public class StripedCounterMap<K> {
+
+    // default number of stripes, a few times more than the usual number of threads
+    private static final int DEFAULT_STRIPES = 64;
+
+    private final List<TObjectIntMap<K>> stripes;
+
+    public StripedCounterMap() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes the number of stripes, rounded up to a power of two
+     */
+    public StripedCounterMap(int stripes) {
+        if (stripes < 1)
+            throw new IllegalArgumentException("Number of stripes must be positive: " + stripes);
+        int size = Integer.highestOneBit(stripes);
+        if (size < stripes)
+            size *= 2;
+        this.stripes = new ArrayList<>(size);
+        for (int s = 0; s < size; s++)
+            this.stripes.add(new TObjectIntHashMap<>());
+    }
+
+    /**
+     * @param key a key
+     * @return the index of the stripe of the key
+     */
+    private int stripe(Object key) {
+        int hash = key.hashCode();
+        // the hash is mixed, so that the stripe does not depend on the slot within a stripe
+        hash ^= (hash >>> 16);
+        return (hash * 0x9E3779B9 >>> 16) & (stripes.size() - 1);
+    }
+
+    /**
+     * Adds an amount to the count of a key, which is put with the amount if it is new.
+     * @param key the key
+     * @param amount the amount to add
+     */
+    public void add(K key, int amount) {
+        TObjectIntMap<K> stripe = stripes.get(stripe(key));
+        synchronized (stripe) {
+            stripe.adjustOrPutValue(key, amount, amount);
+        }
+    }
+
+    /**
+     * Adds all counts of a map, e.g. the private counts of a thread. The entries are
+     * sorted by their stripes first, so that the lock of each stripe is taken once.
+     * @param counts the counts to add
+     */
+    @SuppressWarnings("unchecked")
+    public void addAll(TObjectIntMap<K> counts) {
+        int size = counts.size();
+        if (size == 0)
+            return;
+        // counting sort of the entries by stripe
+        int[] ends = new int[stripes.size() + 1];
+        int[] ids = new int[size];
+        Object[] keys = new Object[size];
+        int[] values = new int[size];
+        int n = 0;
+        for (TObjectIntIterator<K> iter = counts.iterator(); iter.hasNext(); n++) {
+            iter.advance();
+            keys[n] = iter.key();
+            values[n] = iter.value();
+            ids[n] = stripe(keys[n]);
+            ends[ids[n] + 1]++;
+        }
+        for (int s = 0; s < stripes.size(); s++)
+            ends[s + 1] += ends[s];
+        int[] order = new int[size];
+        int[] next = ends.clone();
+        for (int e = 0; e < size; e++)
+            order[next[ids[e]]++] = e;
+
+        for (int s = 0; s < stripes.size(); s++) {
+            if (ends[s] == ends[s + 1])
+                continue;
+            TObjectIntMap<K> stripe = stripes.get(s);
+            synchronized (stripe) {
+                for (int k = ends[s]; k < ends[s + 1]; k++) {
+                    int e = order[k];
+                    stripe.adjustOrPutValue((K) keys[e], values[e], values[e]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param key a key
+     * @return the count of the key, 0 if it has not been added
+     */
+    public int get(K key) {
+        TObjectIntMap<K> stripe = stripes.get(stripe(key));
+        synchronized (stripe) {
+            return stripe.get(key);
+        }
+    }
+
+    /**
+     * @return the number of keys
+     */
+    public int size() {
+        int size = 0;
+        for (TObjectIntMap<K> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Copies all counts into a single map. The copy is only consistent if no counts are
+     * added at the same time, as every stripe is copied under its own lock.
+     * @return a new map with all keys and their counts
+     */
+    public TObjectIntMap<K> toMap() {
+        TObjectIntMap<K> map = new TObjectIntHashMap<>(Math.max(size(), 16));
+        for (TObjectIntMap<K> stripe : stripes) {
+            synchronized (stripe) {
+                map.putAll(stripe);
+            }
+        }
+        return map;
+    }
+}
@@ -0,0 +1,84 @@
+package cluster;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.junit.Test;
+import pattern.Aligner;
+import pattern.PairAligner;
+import pattern.Pattern;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ClusterBuilderTest {
+
+    private static ClusterBuilder builder() {
+        Set<Pattern> patterns = new HashSet<>();
+        patterns.add(new Pattern("./. -/e -/s N/N", 10, "pattern0"));
+        patterns.add(new Pattern("./. -/e -/n N/N", 8, "pattern1"));
+        return new ClusterBuilder(patterns, Arrays.asList("haus:N", "hauses:N", "baum:N", "baumes:N",
+                "tisch:N", "tisches:N", "hasen:N", "has:N"));
+    }
+
+    /**
+     * Stems with a POS that no pattern has, so that only their lengths and their relations
+     * decide which pairs are aligned.
+     */
+    private static Map<String, Set<String>> stems(Random random) {
+        Map<String, Set<String>> stemRel = new HashMap<>();
+        for (int n = 0; n < 300; n++) {
+            StringBuilder stem = new StringBuilder();
+            for (int i = 1 + random.nextInt(9); i > 0; i--)
+                stem.append((char) ('a' + random.nextInt(5)));
+            Set<String> rels = new HashSet<>();
+            for (int r = 1 + random.nextInt(3); r > 0; r--)
+                rels.add("pattern" + random.nextInt(8));
+            stemRel.put(stem.append(":X").toString(), rels);
+        }
+        return stemRel;
+    }
+
+    @Test
+    public void countStemPatternsInParallel() throws Exception {
+        ClusterBuilder builder = builder();
+        Map<String, Set<String>> stemRel = stems(new Random(0));
+
+        // the counts of the original sequential loop
+        Aligner aligner = new PairAligner();
+        TObjectIntMap<String> expected = new TObjectIntHashMap<>();
+        for (String stem1 : stemRel.keySet()) {
+            for (String stem2 : stemRel.keySet()) {
+                if (Math.abs(stem1.length() - stem2.length()) <= 5
+                        && Collections.disjoint(stemRel.get(stem1), stemRel.get(stem2))) {
+                    String[] patterns = aligner.findPatterns(stem1, stem2, 0.5);
+                    if (patterns.length > 0) {
+                        int weight = stemRel.get(stem1).size() + stemRel.get(stem2).size();
+                        expected.adjustOrPutValue(patterns[0], weight, weight);
+                        expected.adjustOrPutValue(patterns[1], weight, weight);
+                    }
+                }
+            }
+        }
+        assertFalse(expected.isEmpty());
+
+        for (int threads : new int[] {1, 4}) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                // a parallel stream runs on the pool of the task that starts it
+                assertEquals(expected, pool.submit(() -> builder.countStemPatterns(stemRel)).get());
+            }
+            finally {
+                pool.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package fst;
+
+import org.junit.Test;
+import pattern.Pattern;
+import pattern.PatternToFST;
+import util.Lexicon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompiledFSTTest {
+
+    private static Set<Pattern> patterns() {
+        Set<Pattern> patterns = new HashSet<>();
+        patterns.add(new Pattern("./. -/e -/n V/N", 40, "pattern0"));
+        patterns.add(new Pattern("./. e/- n/- N/V", 38, "pattern1"));
+        patterns.add(new Pattern("-/v -/e -/r ./. V/V", 25, "pattern2"));
+        patterns.add(new Pattern("./. -/s N/N", 30, "pattern3"));
+        patterns.add(new Pattern("./. a/e ./. N/N", 12, "pattern4"));
+        patterns.add(new Pattern("./. -/e ./. -/t V/A", 9, "pattern5"));
+        patterns.add(new Pattern("./. -/n */N", 7, "pattern6"));
+        patterns.add(new Pattern("./. N/A", 50, "pattern7"));
+        return patterns;
+    }
+
+    private static List<String> words() {
+        List<String> words = new ArrayList<>();
+        for (String stem : Arrays.asList("lauf", "spiel", "haus", "band", "rat", "e", ""))
+            for (String pos : Arrays.asList("V", "N", "A", "*"))
+                for (String word : Arrays.asList(stem, stem + "en", "ver" + stem, stem + "s", stem + "n",
+                        stem.replace('a', 'e'), "ver" + stem + "en"))
+                    words.add(word + ":" + pos);
+        return words;
+    }
+
+    @Test
+    public void sameRelationsAsTransducer() {
+        for (boolean single : new boolean[] {true, false}) {
+            List<FST> fsts = new ArrayList<>();
+            if (single)
+                fsts.add(PatternToFST.createSingleFromPatterns(patterns()));
+            else
+                fsts.addAll(PatternToFST.createMultipleFromPatterns(patterns()));
+
+            Lexicon lexicon = new Lexicon();
+            List<String> words = words();
+            // the last words are not in the lexicon, so that their symbols are unknown
+            words.add("zug:N");
+            words.add("zugen:V");
+            List<short[]> codes = new ArrayList<>();
+            List<Integer> pos = new ArrayList<>();
+            for (String word : words.subList(0, words.size() - 2)) {
+                codes.add(lexicon.encodeWord(word));
+                pos.add(lexicon.encodePOS(word));
+            }
+
+            int found = 0;
+            for (FST fst : fsts) {
+                fst.determinize();
+                CompiledFST compiled = fst.compile(lexicon);
+                for (int i = 0; i < words.size(); i++) {
+                    for (int j = 0; j < words.size(); j++) {
+                        FST.Result expected = fst.transduce(words.get(i), words.get(j));
+                        FST.Result result = compiled.transduce(words.get(i), words.get(j));
+                        String name = words.get(i) + " " + words.get(j);
+                        assertEquals(name, expected.getRelation(), result.getRelation());
+                        assertEquals(name, expected.getWeight(), result.getWeight());
+                        if (i < codes.size() && j < codes.size()) {
+                            result = compiled.transduce(codes.get(i), pos.get(i), codes.get(j), pos.get(j));
+                            assertEquals(name, expected.getRelation(), result.getRelation());
+                            assertEquals(name, expected.getWeight(), result.getWeight());
+                        }
+                        if (!expected.isEmpty())
+                            found++;
+                    }
+                }
+            }
+            assertTrue(found > 0);
+        }
+    }
+}
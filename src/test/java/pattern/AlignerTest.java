@@ -0,0 +1,203 @@
+package pattern;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that every {@link Aligner} finds the same patterns as the original string-based
+ * alignment, which is kept here as {@link #findPattern(String, String, double)}.
+ */
+public class AlignerTest {
+
+    private static final double KEEP = 1.0/3;
+    private static final double[] KEEPS = {0, KEEP, 0.5, 1};
+
+    private static List<Aligner> aligners() {
+        List<Aligner> aligners = new ArrayList<>();
+        aligners.add(new PairAligner());
+        aligners.add(new BitParallelAligner());
+        aligners.add(new Hirschberg());
+        return aligners;
+    }
+
+    @Test
+    public void emptyWords() {
+        check(":N", ":N");
+        check(":N", "a:V");
+        check("abc:N", ":V");
+    }
+
+    @Test
+    public void identicalWords() {
+        check("a:N", "a:N");
+        check("haus:N", "haus:N");
+        check("haus:N", "haus:V");
+        check(repeat("ab", 40) + ":N", repeat("ab", 40) + ":N");
+    }
+
+    @Test
+    public void noCommonSymbols() {
+        check("a:N", "b:N");
+        check("abc:N", "xyz:V");
+        check("aaaa:N", "bb:N");
+        check(repeat("a", 70) + ":N", repeat("b", 65) + ":N");
+    }
+
+    @Test
+    public void containedWords() {
+        check("haus:N", "haeuser:N");
+        check("haeuser:N", "haus:N");
+        check("spiel:V", "verspielen:V");
+        check("ab:N", "xabx:N");
+    }
+
+    @Test
+    public void randomWords() {
+        Random random = new Random(0);
+        for (int n = 0; n < 5000; n++)
+            check(randomWord(random, 12, 4), randomWord(random, 12, 4));
+    }
+
+    @Test
+    public void randomLongWords() {
+        // longer than a machine word, so that the bit-parallel aligner falls back
+        Random random = new Random(1);
+        for (int n = 0; n < 200; n++)
+            check(randomWord(random, 100, 3), randomWord(random, 100, 3));
+    }
+
+    @Test
+    public void randomSimilarWords() {
+        Random random = new Random(2);
+        for (int n = 0; n < 2000; n++) {
+            String a = randomWord(random, 70, 6);
+            String word = a.substring(0, a.indexOf(':'));
+            StringBuilder b = new StringBuilder();
+            for (int i = 0; i < word.length(); i++) {
+                int edit = random.nextInt(8);
+                if (edit == 0)
+                    continue;
+                b.append((edit == 1) ? (char) ('a' + random.nextInt(6)) : word.charAt(i));
+                if (edit == 2)
+                    b.append((char) ('a' + random.nextInt(6)));
+            }
+            check(a, b + ":V");
+        }
+    }
+
+    /**
+     * Compares the patterns of all aligners in both directions with the original alignment.
+     */
+    private static void check(String a, String b) {
+        for (double mustKeep : KEEPS) {
+            String forward = findPattern(a, b, mustKeep);
+            String backward = findPattern(b, a, mustKeep);
+            String[] both = (forward.isEmpty() || backward.isEmpty()) ? new String[0]
+                    : new String[] {forward, backward};
+            for (Aligner aligner : aligners()) {
+                String name = aligner.getClass().getSimpleName() + " " + a + " " + b + " " + mustKeep;
+                assertEquals(name, forward, aligner.findPattern(a, b, mustKeep));
+                assertEquals(name, backward, aligner.findPattern(b, a, mustKeep));
+                assertArrayEquals(name, both, aligner.findPatterns(a, b, mustKeep));
+                // reusing the aligner for the next pair must not leave anything behind
+                assertEquals(name, forward, aligner.findPattern(a, b, mustKeep));
+            }
+        }
+    }
+
+    private static String randomWord(Random random, int maxLength, int symbols) {
+        StringBuilder word = new StringBuilder();
+        for (int i = random.nextInt(maxLength + 1); i > 0; i--)
+            word.append((char) ('a' + random.nextInt(symbols)));
+        return word.append(random.nextBoolean() ? ":N" : ":V").toString();
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder repeated = new StringBuilder();
+        for (int i = 0; i < times; i++)
+            repeated.append(s);
+        return repeated.toString();
+    }
+
+    /**
+     * The original alignment of two tokens, computing the whole Levenshtein table.
+     * @param a first token
+     * @param b second token
+     * @param mustKeep portion of shorter string that must be kept
+     * @return the pattern or an empty string if mustKeep*shorterString.length did not equal
+     * the amount of same char substitutions
+     */
+    private static String findPattern(String a, String b, double mustKeep) {
+        int split1 = a.indexOf(':');
+        int split2 = b.indexOf(':');
+        String s1 = a.substring(0, split1);
+        String s2 = b.substring(0, split2);
+
+        // Levenshtein
+        int[][] T = new int[s1.length() + 1][s2.length() + 1];
+
+        for (int i = 0; i <= s1.length(); i++) {
+            T[i][0] = i;
+        }
+        for (int j = 0; j <= s2.length(); j++) {
+            T[0][j] = j;
+        }
+
+        for (int i = 1; i <= s1.length(); i++) {
+            for (int j = 1; j <= s2.length(); j++) {
+                int cost = (s1.charAt(i - 1) == s2.charAt(j - 1)) ? 0 : 2;
+                T[i][j] = Math.min(Math.min(
+                        T[i - 1][j] + 1,
+                        T[i][j - 1] + 1),
+                        T[i - 1][j - 1] + cost);
+            }
+        }
+
+        StringBuilder pattern = new StringBuilder();
+        boolean justDeleted = false;
+        boolean justAppended = false;
+        int equal = 0;
+
+        // retrieve pattern
+        for (int i = s1.length(), j = s2.length(); i > 0 || j > 0; ) {
+            if (i > 0 && T[i][j] == T[i - 1][j] + 1) {
+                pattern.append(s1.charAt(--i) + "/- ");
+                justDeleted = true;
+                justAppended = false;
+            } else if (j > 0 && T[i][j] == T[i][j - 1] + 1) {
+                if ((pattern.toString().endsWith("- ")) && justDeleted) {
+                    pattern.replace(pattern.length() - 2, pattern.length(), s2.charAt(--j) + " ");
+                } else {
+                    pattern.append("-/" + s2.charAt(--j) + " ");
+                }
+                justDeleted = false;
+                justAppended = false;
+            } else if (i > 0 && j > 0 && T[i][j] == T[i - 1][j - 1]) {
+                if (!justAppended) pattern.append("./. ");
+                i--;
+                j--;
+                justDeleted = false;
+                justAppended = true;
+                equal++;
+            }
+        }
+
+        // only keep pattern if at least mustKeep of the shorter string matches the other string
+        if (equal > Math.min(s1.length(), s2.length())*mustKeep)
+            return pattern
+                    .deleteCharAt(pattern.length()-1)
+                    .reverse()
+                    .append(" ")
+                    .append(b.substring(split2+1))
+                    .append("/")
+                    .append(a.substring(split1+1))
+                    .toString();
+        return "";
+    }
+}
@@ -0,0 +1,80 @@
+package pattern;
+
+import util.FileIO;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures time and allocated memory per aligned pair, once for the string-based
+ * {@link SequenceAlignment#findPattern(String, String)} and once for each of the
+ * buffer-based aligners, {@link PairAligner}, {@link Hirschberg} and {@link BitParallelAligner}.
+ * Usage: AlignmentBenchmark datafile [words]
+ */
+public class AlignmentBenchmark {
+
+    private static final double KEEP = 1.0/3;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws FileIO.InvalidDataFormatException {
+        if (args.length == 0) {
+            System.err.println("Usage: AlignmentBenchmark datafile [words]");
+            System.exit(1);
+        }
+        List<String> words = new ArrayList<>(FileIO.readData(args[0]));
+        Collections.shuffle(words, new Random(0));
+        if (args.length > 1)
+            words = words.subList(0, Math.min(words.size(), Integer.parseInt(args[1])));
+
+        char[][] chars = new char[words.size()][];
+        int[] splits = new int[words.size()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = words.get(i).toCharArray();
+            splits[i] = words.get(i).indexOf(':');
+        }
+        long pairs = (long) words.size() * (words.size() - 1);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long bytes = allocatedBytes();
+            long time = System.nanoTime();
+            int found = 0;
+            for (int i = 0; i < words.size(); i++)
+                for (int j = 0; j < words.size(); j++)
+                    if (i != j && !SequenceAlignment.findPattern(words.get(i), words.get(j)).isEmpty())
+                        found++;
+            report("findPattern", found, pairs, System.nanoTime() - time, allocatedBytes() - bytes);
+
+            run("PairAligner", new PairAligner(), chars, splits, pairs);
+            run("Hirschberg", new Hirschberg(), chars, splits, pairs);
+            run("BitParallel", new BitParallelAligner(), chars, splits, pairs);
+        }
+    }
+
+    private static void run(String name, Aligner aligner, char[][] chars, int[] splits, long pairs) {
+        long bytes = allocatedBytes();
+        long time = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < chars.length; i++)
+            for (int j = 0; j < chars.length; j++)
+                if (i != j && aligner.align(chars[i], splits[i], chars[i].length,
+                        chars[j], splits[j], chars[j].length, KEEP))
+                    found++;
+        report(name, found, pairs, System.nanoTime() - time, allocatedBytes() - bytes);
+    }
+
+    private static void report(String name, int found, long pairs, long nanos, long bytes) {
+        System.out.printf("%-12s %10d pairs %10d patterns %8.1f ns/pair %8.2f bytes/pair%n",
+                name, pairs, found, (double) nanos / pairs, (double) bytes / pairs);
+    }
+
+    /**
+     * @return the number of bytes allocated by the current thread so far
+     */
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
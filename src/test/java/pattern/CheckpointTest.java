@@ -0,0 +1,178 @@
+package pattern;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CheckpointTest {
+
+    private static final String[] SUFFIXES = {"", "e", "en", "t", "s", "er"};
+    private static final String[] POS = {"N", "V", "A"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // words of random stems with some suffixes each, which share a few patterns
+    static Set<String> words(Random random, int stems) {
+        Set<String> words = new TreeSet<>();
+        for (int s = 0; s < stems; s++) {
+            StringBuilder stem = new StringBuilder();
+            for (int i = 3 + random.nextInt(4); i > 0; i--)
+                stem.append("abdeiklmnorstu".charAt(random.nextInt(14)));
+            for (String suffix : SUFFIXES)
+                if (random.nextInt(3) > 0)
+                    words.add(stem + suffix + ":" + POS[random.nextInt(POS.length)]);
+        }
+        return words;
+    }
+
+    private static AlignmentOptions options(long seed, File checkpoint, boolean resume) {
+        AlignmentOptions options = new AlignmentOptions();
+        options.setThreads(1);
+        options.setSeed(seed);
+        options.setSample(0.5);
+        if (checkpoint != null) {
+            options.setCheckpoint(checkpoint.getPath());
+            options.setCheckpointInterval(0);
+            options.setResume(resume);
+        }
+        return options;
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    private static PatternTable table(String... patterns) {
+        PatternTable table = new PatternTable();
+        for (int i = 0; i < patterns.length; i++)
+            table.add(patterns[i], i + 1);
+        return table;
+    }
+
+    private static AlignmentStats stats(long filtered, long aligned, long kept) {
+        AlignmentStats stats = new AlignmentStats();
+        stats.filtered = filtered;
+        stats.aligned = aligned;
+        stats.kept = kept;
+        return stats;
+    }
+
+    @Test
+    public void resumeTornSegment() throws IOException {
+        List<String> words = Arrays.asList("a:N", "b:N", "c:V");
+        Path file = folder.getRoot().toPath().resolve("run.ckpt");
+        AlignmentOptions options = options(5, null, false);
+        try (Checkpoint checkpoint = Checkpoint.create(file, words, options)) {
+            checkpoint.append(2, table("./. -/e N/N", "a/- ./. N/V"), stats(3, 4, 2));
+        }
+        long complete = Files.size(file);
+        try (Checkpoint checkpoint = Checkpoint.resume(file, words, options)) {
+            checkpoint.append(3, table("./. -/e N/N", "./. -/s V/N", "./. N/A"), stats(1, 1, 1));
+        }
+        // cut the end marker off the second segment
+        truncate(file.toFile(), Files.size(file) - 2);
+
+        options.setSeed(6);
+        try (Checkpoint checkpoint = Checkpoint.resume(file, words, options)) {
+            assertEquals(5, options.getSeed());
+            assertEquals(2, checkpoint.cursor());
+            assertEquals(table("./. -/e N/N", "a/- ./. N/V").toMap(), checkpoint.table().toMap());
+            assertEquals(stats(3, 4, 2).toString(), checkpoint.stats().toString());
+        }
+        assertEquals(complete, Files.size(file));
+    }
+
+    @Test
+    public void resumeAddsUpSegments() throws IOException {
+        List<String> words = Arrays.asList("a:N", "b:N", "c:V");
+        Path file = folder.getRoot().toPath().resolve("run.ckpt");
+        AlignmentOptions options = options(5, null, false);
+        try (Checkpoint checkpoint = Checkpoint.create(file, words, options)) {
+            checkpoint.append(1, table("./. -/e N/N", "a/- ./. N/V"), stats(3, 4, 2));
+            checkpoint.append(3, table("./. -/e N/N", "./. -/s V/N"), stats(1, 1, 1));
+        }
+        try (Checkpoint checkpoint = Checkpoint.resume(file, words, options)) {
+            assertEquals(3, checkpoint.cursor());
+            PatternTable expected = table("./. -/e N/N", "a/- ./. N/V");
+            expected.add("./. -/e N/N", 1);
+            expected.add("./. -/s V/N", 2);
+            assertEquals(expected.toMap(), checkpoint.table().toMap());
+            assertEquals(stats(4, 5, 3).toString(), checkpoint.stats().toString());
+        }
+    }
+
+    @Test
+    public void resumedRunEqualsUninterruptedRun() throws IOException {
+        Set<String> words = words(new Random(3), 80);
+        PatternTable expected = SequenceAlignment.getPatterns(words, options(11, null, false));
+
+        File file = folder.newFile("run.ckpt");
+        PatternTable checkpointed = SequenceAlignment.getPatterns(words, options(11, file, false));
+        assertEquals(expected.toMap(), checkpointed.toMap());
+
+        // cut the file within one of its segments, as a crash would, and resume with another seed
+        long length = file.length();
+        truncate(file, length * 2 / 3);
+        AlignmentOptions options = options(12, file, true);
+        PatternTable resumed = SequenceAlignment.getPatterns(words, options);
+        assertEquals(11, options.getSeed());
+        assertEquals(expected.toMap(), resumed.toMap());
+        assertTrue(expected.size() > 0);
+    }
+
+    @Test
+    public void mismatchedHeader() throws IOException {
+        List<String> words = Arrays.asList("a:N", "b:N", "c:V");
+        Path file = folder.getRoot().toPath().resolve("run.ckpt");
+        try (Checkpoint checkpoint = Checkpoint.create(file, words, options(5, null, false))) {
+            checkpoint.append(3, table("./. -/e N/N"), stats(1, 1, 1));
+        }
+        byte[] written = Files.readAllBytes(file);
+
+        AlignmentOptions sample = options(5, null, false);
+        sample.setSample(0.25);
+        AlignmentOptions shard = options(5, null, false);
+        shard.setShard(1, 2);
+        assertRejected(file, Arrays.asList("a:N", "b:N", "d:V"), options(5, null, false));
+        assertRejected(file, Arrays.asList("a:N", "b:N"), options(5, null, false));
+        assertRejected(file, words, sample);
+        assertRejected(file, words, shard);
+        // the file of the other run is left as it is
+        assertArrayEquals(written, Files.readAllBytes(file));
+
+        Path text = folder.getRoot().toPath().resolve("words.txt");
+        Files.write(text, Collections.singletonList("not a checkpoint"), StandardCharsets.UTF_8);
+        assertRejected(text, words, options(5, null, false));
+    }
+
+    private static void assertRejected(Path file, List<String> words, AlignmentOptions options) {
+        try {
+            Checkpoint.resume(file, words, options).close();
+            fail("Checkpoint of another run was resumed");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+}
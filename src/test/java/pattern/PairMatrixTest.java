@@ -0,0 +1,94 @@
+package pattern;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that grouping the words by their surface forms in {@link PairMatrix#alignRow}
+ * counts the same patterns as aligning every pair of words on its own.
+ */
+public class PairMatrixTest {
+
+    private static final double KEEP = 1.0/3;
+    private static final String[] STEMS = {"spiel", "haus", "lauf", "mach", "sag"};
+    private static final String[] SUFFIXES = {"", "en", "e", "er", "t", "ung"};
+    // tags of different lengths, as the POS of a pattern is replaced for every pair
+    private static final String[] POS = {"N", "V", "ADJ", "NN", "VVFIN"};
+
+    private static List<String> words(Random random, int n) {
+        List<String> words = new ArrayList<>();
+        while (words.size() < n) {
+            String word = STEMS[random.nextInt(STEMS.length)] + SUFFIXES[random.nextInt(SUFFIXES.length)]
+                    + ":" + POS[random.nextInt(POS.length)];
+            if (!words.contains(word))
+                words.add(word);
+        }
+        Collections.shuffle(words, random);
+        return words;
+    }
+
+    private static PatternTable alignRows(PairMatrix matrix) {
+        PatternTable table = new PatternTable();
+        Aligner aligner = new BitParallelAligner();
+        AlignmentStats stats = new AlignmentStats();
+        for (int i = 0; i < matrix.rows(); i++)
+            matrix.alignRow(i, aligner, table, stats);
+        return table;
+    }
+
+    private static PatternTable alignPairs(List<String> wlist1, List<String> wlist2, boolean same,
+                                           boolean forward, boolean reverse) {
+        PatternTable table = new PatternTable();
+        Aligner aligner = new PairAligner();
+        for (int i = 0; i < wlist1.size(); i++) {
+            for (int j = (same) ? i+1 : 0; j < wlist2.size(); j++) {
+                char[] a = wlist1.get(i).toCharArray();
+                char[] b = wlist2.get(j).toCharArray();
+                if (wlist1.get(i).equals(wlist2.get(j))
+                        || !aligner.alignBoth(a, wlist1.get(i).indexOf(':'), a.length,
+                                b, wlist2.get(j).indexOf(':'), b.length, KEEP))
+                    continue;
+                if (forward)
+                    table.add(aligner.getPatternChars(), aligner.getPatternLength(),
+                            aligner.getPatternTransitions(), 1);
+                if (reverse)
+                    table.add(aligner.getReversePatternChars(), aligner.getReversePatternLength(),
+                            aligner.getReversePatternTransitions(), 1);
+            }
+        }
+        return table;
+    }
+
+    @Test
+    public void sameList() {
+        Random random = new Random(16);
+        for (int n = 0; n < 10; n++) {
+            List<String> words = words(random, 40);
+            PatternTable expected = alignPairs(words, words, true, true, true);
+            assertTrue(expected.size() > 0);
+            assertEquals(expected.toMap(), alignRows(new PairMatrix(words, words, true, KEEP, 1, 0)).toMap());
+        }
+    }
+
+    @Test
+    public void twoLists() {
+        Random random = new Random(17);
+        for (int n = 0; n < 10; n++) {
+            // the lists share some words and many surface forms
+            List<String> words1 = words(random, 25);
+            List<String> words2 = words(random, 30);
+            for (boolean[] directions : new boolean[][] {{true, true}, {true, false}, {false, true}}) {
+                PatternTable expected = alignPairs(words1, words2, false, directions[0], directions[1]);
+                PairMatrix matrix = new PairMatrix(words1, words2, false, KEEP, 1, 0, directions[0], directions[1]);
+                assertEquals(expected.toMap(), alignRows(matrix).toMap());
+            }
+        }
+    }
+}
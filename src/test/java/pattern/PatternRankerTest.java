@@ -0,0 +1,84 @@
+package pattern;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class PatternRankerTest {
+
+    private static final String[] TRANSITIONS = {"./.", "a/-", "-/b", "a/b", "c/-", "-/d"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Writes a pattern file with more patterns than are sorted in memory, so that the
+     * ranked patterns are spilled to runs and merged.
+     */
+    private File patternFile(List<String> lines) throws IOException {
+        Random random = new Random(0);
+        for (int n = 0; n < 300000; n++) {
+            StringBuilder pattern = new StringBuilder();
+            for (int t = 1 + random.nextInt(5); t > 0; t--)
+                pattern.append(TRANSITIONS[random.nextInt(TRANSITIONS.length)]).append(' ');
+            pattern.append(random.nextBoolean() ? "N/V" : "V/N");
+            lines.add((1 + random.nextInt(50)) + "\t" + pattern);
+        }
+        File file = folder.newFile("patterns.freq");
+        Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    /**
+     * @return the lines of the ranked file, sorted by weighted frequency (descending) and
+     * by their position in the pattern file
+     */
+    private static List<String> expected(List<String> lines, int limit) {
+        List<String[]> ranked = new ArrayList<>();
+        int min = Integer.MAX_VALUE;
+        for (String line : lines)
+            min = Math.min(min, Integer.parseInt(line.substring(0, line.indexOf('\t'))));
+        for (String line : lines) {
+            int tab = line.indexOf('\t');
+            String pattern = line.substring(tab + 1);
+            int weight = PatternRanker.weigh(new Pattern(pattern, Integer.parseInt(line.substring(0, tab)), ""));
+            if (weight >= min * 5)
+                ranked.add(new String[] {Integer.toString(weight), pattern});
+        }
+        // a stable sort keeps the order of the file for equal weights
+        ranked.sort(Comparator.comparingInt((String[] r) -> Integer.parseInt(r[0])).reversed());
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < ranked.size() && (limit == 0 || i < limit); i++)
+            expected.add("pattern" + i + "\t" + ranked.get(i)[0] + "\t" + ranked.get(i)[1]);
+        return expected;
+    }
+
+    @Test
+    public void rankSorted() throws IOException {
+        List<String> lines = new ArrayList<>();
+        File infile = patternFile(lines);
+        File outfile = new File(folder.getRoot(), "patterns.ranks");
+        PatternRanker.rankPatterns(infile.getPath(), outfile.getPath(), 0, 2);
+        assertEquals(expected(lines, 0), Files.readAllLines(outfile.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void rankLimited() throws IOException {
+        List<String> lines = new ArrayList<>();
+        File infile = patternFile(lines);
+        File outfile = new File(folder.getRoot(), "patterns.ranks");
+        PatternRanker.rankPatterns(infile.getPath(), outfile.getPath(), 1000, 2);
+        assertEquals(expected(lines, 1000), Files.readAllLines(outfile.toPath(), StandardCharsets.UTF_8));
+    }
+}
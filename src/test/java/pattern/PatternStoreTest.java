@@ -0,0 +1,107 @@
+package pattern;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PatternStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File write(String name, List<String> lines) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private static List<String> ranks(int n) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+            lines.add("pattern" + i + "\t" + (1000 - i) + "\t./. -/" + (char) ('a' + i % 26) + " V/N");
+        return lines;
+    }
+
+    @Test
+    public void convertRanks() throws IOException {
+        List<String> lines = ranks(51);
+        File text = write("patterns.ranks", lines);
+        File store = new File(folder.getRoot(), "patterns.ranks.bin");
+        PatternStore.fromText(text.getPath(), store.getPath());
+        assertTrue(PatternStore.isStore(store.getPath()));
+
+        PatternStore opened = PatternStore.open(store.getPath());
+        assertEquals(51, opened.size());
+        assertTrue(opened.isLabelled());
+        assertEquals("pattern7", opened.getLabel(7));
+        assertEquals(993, opened.getFreq(7));
+        assertEquals("./. -/h V/N", opened.getPattern(7));
+
+        File back = new File(folder.getRoot(), "back.ranks");
+        PatternStore.toText(store.getPath(), back.getPath());
+        assertEquals(lines, Files.readAllLines(back.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void convertFrequencies() throws IOException {
+        List<String> lines = Arrays.asList("12\t./. -/a V/N", "7\ta/- ./. N/N");
+        File text = write("patterns.freq", lines);
+        File store = new File(folder.getRoot(), "patterns.freq.bin");
+        PatternStore.fromText(text.getPath(), store.getPath());
+        assertFalse(PatternStore.open(store.getPath()).isLabelled());
+
+        File back = new File(folder.getRoot(), "back.freq");
+        PatternStore.toText(store.getPath(), back.getPath());
+        assertEquals(lines, Files.readAllLines(back.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void failedConversionLeavesNoStore() throws IOException {
+        List<String> lines = ranks(51);
+        lines.set(30, "pattern30\tmany\t./. -/e V/N");
+        File text = write("broken.ranks", lines);
+        File store = new File(folder.getRoot(), "broken.ranks.bin");
+        try {
+            PatternStore.fromText(text.getPath(), store.getPath());
+            fail("Malformed frequency was accepted");
+        }
+        catch (NumberFormatException e) {
+            // expected
+        }
+        assertFalse(store.exists());
+        // neither the store nor the records are left behind as temporary files
+        assertArrayEquals(new String[] {"broken.ranks"}, folder.getRoot().list());
+    }
+
+    @Test
+    public void failedConversionKeepsOldStore() throws IOException {
+        File store = new File(folder.getRoot(), "patterns.ranks.bin");
+        PatternStore.fromText(write("patterns.ranks", ranks(3)).getPath(), store.getPath());
+        byte[] old = Files.readAllBytes(store.toPath());
+
+        List<String> lines = ranks(10);
+        lines.set(5, "pattern5");
+        try {
+            PatternStore.fromText(write("patterns.ranks", lines).getPath(), store.getPath());
+            fail("Line without frequency was accepted");
+        }
+        catch (RuntimeException e) {
+            // expected
+        }
+        assertArrayEquals(old, Files.readAllBytes(store.toPath()));
+    }
+}
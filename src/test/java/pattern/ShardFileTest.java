@@ -0,0 +1,103 @@
+package pattern;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import util.FileIO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShardFileTest {
+
+    private static final int SHARDS = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static AlignmentOptions options(long seed) {
+        AlignmentOptions options = new AlignmentOptions();
+        options.setThreads(1);
+        options.setSeed(seed);
+        options.setSample(0.5);
+        return options;
+    }
+
+    private List<Path> writeShards(Set<String> words, long seed, int shards) {
+        List<Path> files = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            AlignmentOptions options = options(seed);
+            options.setShard(shard, shards);
+            // one shard spills its counts, the others keep them in a table
+            if (shard == 1)
+                options.setSpill(50);
+            File file = new File(folder.getRoot(), "words.part" + (shard + 1));
+            SequenceAlignment.writePatterns(words, options, file.getPath());
+            files.add(file.toPath());
+        }
+        return files;
+    }
+
+    private static List<String> paths(List<Path> files) {
+        List<String> paths = new ArrayList<>();
+        for (Path file : files)
+            paths.add(file.toString());
+        return paths;
+    }
+
+    @Test
+    public void mergedShardsEqualOneRun() {
+        Set<String> words = CheckpointTest.words(new Random(4), 80);
+        PatternTable expected = SequenceAlignment.getPatterns(words, options(21));
+
+        File merged = new File(folder.getRoot(), "words.freq");
+        SequenceAlignment.mergePatterns(paths(writeShards(words, 21, SHARDS)), options(21), merged.getPath());
+        assertEquals(expected.toMap(), FileIO.readPatterns(merged.getPath()));
+        assertTrue(expected.size() > 0);
+    }
+
+    @Test
+    public void duplicateShard() throws IOException {
+        List<Path> files = writeShards(CheckpointTest.words(new Random(5), 10), 22, SHARDS);
+        ShardFile.check(files);
+        assertRejected(Arrays.asList(files.get(0), files.get(1), files.get(1), files.get(2)), "given twice");
+    }
+
+    @Test
+    public void missingShard() throws IOException {
+        List<Path> files = writeShards(CheckpointTest.words(new Random(6), 10), 23, SHARDS);
+        assertRejected(Arrays.asList(files.get(0), files.get(2)), "missing");
+        assertRejected(new ArrayList<>(), "No shard files");
+    }
+
+    @Test
+    public void shardOfAnotherRun() throws IOException {
+        Set<String> words = CheckpointTest.words(new Random(7), 10);
+        List<Path> files = writeShards(words, 24, SHARDS);
+        AlignmentOptions options = options(25);
+        options.setShard(1, SHARDS);
+        File other = new File(folder.getRoot(), "other.part2");
+        SequenceAlignment.writePatterns(words, options, other.getPath());
+        assertRejected(Arrays.asList(files.get(0), other.toPath(), files.get(2)), "another seed");
+    }
+
+    private static void assertRejected(List<Path> files, String message) {
+        try {
+            ShardFile.check(files);
+            fail("Shard files were accepted: " + files);
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+}
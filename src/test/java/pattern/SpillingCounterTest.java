@@ -0,0 +1,151 @@
+package pattern;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpillingCounterTest {
+
+    private static final String SYMBOLS = "abcde-";
+    private static final String[] POS = {"N/N", "N/V", "V/N", "A/N"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<String> patterns(Random random, int n) {
+        List<String> patterns = new ArrayList<>();
+        for (int p = 0; p < n; p++) {
+            StringBuilder pattern = new StringBuilder("./.");
+            for (int t = random.nextInt(4); t >= 0; t--)
+                pattern.append(' ').append(SYMBOLS.charAt(random.nextInt(SYMBOLS.length())))
+                        .append('/').append(SYMBOLS.charAt(random.nextInt(SYMBOLS.length())));
+            pattern.append(' ').append(POS[random.nextInt(POS.length)]);
+            patterns.add(pattern.toString());
+        }
+        return patterns;
+    }
+
+    private static void add(PatternCounter counter, String pattern, int freq) {
+        char[] chars = pattern.toCharArray();
+        counter.add(chars, chars.length, (pattern.lastIndexOf(' ') + 1) / 4, freq);
+    }
+
+    private static void assertSorted(RunMerger merger, PatternTable expected) throws IOException {
+        char[] previous = null;
+        int previousLength = 0;
+        int records = 0;
+        while (merger.next()) {
+            if (previous != null)
+                assertTrue(RunReader.compare(previous, 0, previousLength, merger.key(), 0, merger.length()) < 0);
+            previous = Arrays.copyOf(merger.key(), merger.length());
+            previousLength = merger.length();
+            records++;
+        }
+        assertEquals(expected.size(), records);
+    }
+
+    @Test
+    public void spilledCountsEqualTable() throws IOException {
+        Random random = new Random(9);
+        List<String> pool = patterns(random, 1500);
+        PatternTable expected = new PatternTable();
+        // with at most 10 patterns per run, there are far more runs than are merged at once
+        SpillingCounter counter = new SpillingCounter(10);
+        for (int n = 0; n < 4000; n++) {
+            String pattern = pool.get(random.nextInt(pool.size()));
+            int freq = 1 + random.nextInt(3);
+            add(expected, pattern, freq);
+            add(counter, pattern, freq);
+        }
+        assertEquals(expected.toMap(), counter.toTable().toMap());
+        // the runs are kept until they are merged with deletion
+        assertEquals(expected.toMap(), counter.toTable().toMap());
+        try (RunMerger merger = counter.merge(true)) {
+            assertSorted(merger, expected);
+        }
+        assertEquals(0, counter.toTable().size());
+    }
+
+    @Test
+    public void addAllTakesOverRuns() {
+        Random random = new Random(10);
+        List<String> pool = patterns(random, 300);
+        PatternTable expected = new PatternTable();
+        SpillingCounter counter = new SpillingCounter(20);
+        SpillingCounter other = new SpillingCounter(7);
+        PatternTable table = new PatternTable();
+        PatternCounter[] targets = {counter, other, table};
+        for (int n = 0; n < 1000; n++) {
+            String pattern = pool.get(random.nextInt(pool.size()));
+            add(expected, pattern, 1);
+            add(targets[n % targets.length], pattern, 1);
+        }
+        counter.addAll(other);
+        counter.addAll(table);
+        assertEquals(0, other.toTable().size());
+        assertEquals(expected.toMap(), counter.toTable().toMap());
+    }
+
+    @Test
+    public void mergeManyRuns() throws IOException {
+        Random random = new Random(11);
+        List<String> pool = patterns(random, 2000);
+        PatternTable expected = new PatternTable();
+        List<Path> runs = new ArrayList<>();
+        // more runs than MAX_FAN_IN, so that they are reduced to intermediate runs first
+        for (int r = 0; r < 150; r++) {
+            PatternTable run = new PatternTable();
+            for (int n = 0; n < 30; n++) {
+                String pattern = pool.get(random.nextInt(pool.size()));
+                add(run, pattern, 1);
+                add(expected, pattern, 1);
+            }
+            File file = folder.newFile("run" + r);
+            try (RunWriter writer = new RunWriter(file.toPath())) {
+                run.writeRun(writer);
+            }
+            runs.add(file.toPath());
+        }
+
+        PatternTable merged = new PatternTable();
+        try (RunMerger merger = new RunMerger(runs, false)) {
+            while (merger.next())
+                merged.addEncoded(merger.key(), 0, merger.length(), merger.count());
+        }
+        assertEquals(expected.toMap(), merged.toMap());
+        try (RunMerger merger = new RunMerger(runs, true)) {
+            assertSorted(merger, expected);
+        }
+        // the runs and the intermediate runs are deleted
+        for (Path run : runs)
+            assertFalse(run.toFile().exists());
+        assertArrayEquals(new String[0], folder.getRoot().list());
+    }
+
+    @Test
+    public void writeRunSortsPatterns() throws IOException {
+        PatternTable table = new PatternTable();
+        for (String pattern : patterns(new Random(12), 500))
+            add(table, pattern, 1);
+        File file = folder.newFile("run");
+        try (RunWriter writer = new RunWriter(file.toPath())) {
+            table.writeRun(writer);
+        }
+        try (RunMerger merger = new RunMerger(Arrays.asList(file.toPath()), false)) {
+            assertSorted(merger, table);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package pattern;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import util.FileIO;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StateFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static AlignmentOptions options(File state, int spill) {
+        AlignmentOptions options = new AlignmentOptions();
+        options.setThreads(2);
+        options.setSeed(31);
+        options.setState(state.getPath());
+        options.setSpill(spill);
+        return options;
+    }
+
+    private void checkTwoSteps(int firstSpill, int secondSpill) {
+        Set<String> words = CheckpointTest.words(new Random(8), 80);
+        List<String> wlist = new ArrayList<>(words);
+        Set<String> first = new HashSet<>(wlist.subList(0, wlist.size() / 2));
+        PatternTable expected = SequenceAlignment.getPatterns(words, new AlignmentOptions());
+        assertTrue(expected.size() > 0);
+
+        String name = "words" + firstSpill + "-" + secondSpill;
+        File state = new File(folder.getRoot(), name + ".state");
+        File freq = new File(folder.getRoot(), name + ".freq");
+        SequenceAlignment.writePatterns(first, options(state, firstSpill), freq.getPath());
+        SequenceAlignment.writePatterns(words, options(state, secondSpill), freq.getPath());
+        assertEquals(expected.toMap(), FileIO.readPatterns(freq.getPath()));
+
+        // a run without new words only reads the state
+        SequenceAlignment.writePatterns(words, options(state, secondSpill), freq.getPath());
+        assertEquals(expected.toMap(), FileIO.readPatterns(freq.getPath()));
+    }
+
+    @Test
+    public void twoStepsInMemory() {
+        checkTwoSteps(0, 0);
+    }
+
+    @Test
+    public void twoStepsSpilled() {
+        checkTwoSteps(50, 50);
+    }
+
+    @Test
+    public void spilledStateContinuedInMemory() {
+        checkTwoSteps(50, 0);
+        checkTwoSteps(0, 50);
+    }
+}
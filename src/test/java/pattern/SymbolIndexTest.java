@@ -0,0 +1,88 @@
+package pattern;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the {@link SymbolIndex} finds every partner of a word that passes the
+ * histogram bound of {@link SequenceAlignment#mayKeep(char[], char[], double)}, by
+ * comparing it with a scan over all partners.
+ */
+public class SymbolIndexTest {
+
+    private static final double[] KEEPS = {0, 1.0/3, 0.5, 0.9};
+
+    private static char[][] randomSymbols(Random random, int words, int maxLength, int symbols) {
+        char[][] all = new char[words][];
+        for (int i = 0; i < words; i++) {
+            // few lengths, so that many words are as long as each other
+            char[] word = new char[random.nextInt(maxLength + 1)];
+            for (int k = 0; k < word.length; k++)
+                word[k] = (char) ('a' + random.nextInt(symbols));
+            all[i] = SequenceAlignment.sortedSymbols(new String(word) + ":N");
+        }
+        return all;
+    }
+
+    private static void check(char[][] symbols1, char[][] symbols2, double mustKeep, Random random) {
+        SymbolIndex index = new SymbolIndex(symbols1, symbols2, mustKeep);
+        for (int i = 0; i < symbols1.length; i++) {
+            int from = (random.nextBoolean()) ? 0 : random.nextInt(symbols2.length + 1);
+            SymbolIndex.Probe candidates = index.candidates(i, from);
+            for (int k = 0; k < candidates.size(); k++) {
+                assertTrue(candidates.get(k) >= from);
+                assertTrue(k == 0 || candidates.get(k - 1) < candidates.get(k));
+            }
+            for (int j = from; j < symbols2.length; j++)
+                if (SequenceAlignment.mayKeep(symbols1[i], symbols2[j], mustKeep))
+                    assertTrue("Pair " + i + ", " + j + " with keep " + mustKeep + " is missing",
+                            candidates.contains(j));
+        }
+    }
+
+    @Test
+    public void sameList() {
+        Random random = new Random(13);
+        for (double keep : KEEPS) {
+            for (int n = 0; n < 20; n++) {
+                char[][] symbols = randomSymbols(random, 60, 8, 2 + n % 5);
+                check(symbols, symbols, keep, random);
+            }
+        }
+    }
+
+    @Test
+    public void twoLists() {
+        Random random = new Random(14);
+        for (double keep : KEEPS) {
+            for (int n = 0; n < 20; n++) {
+                // symbols of the first list that the second list does not have
+                char[][] symbols1 = randomSymbols(random, 40, 10, 3 + n % 6);
+                char[][] symbols2 = randomSymbols(random, 50, 6, 2 + n % 3);
+                check(symbols1, symbols2, keep, random);
+                check(symbols2, symbols1, keep, random);
+            }
+        }
+    }
+
+    @Test
+    public void repeatedSymbols() {
+        Random random = new Random(15);
+        char[][] symbols = new char[][] {
+                SequenceAlignment.sortedSymbols(":N"),
+                SequenceAlignment.sortedSymbols("a:N"),
+                SequenceAlignment.sortedSymbols("aa:N"),
+                SequenceAlignment.sortedSymbols("aaa:N"),
+                SequenceAlignment.sortedSymbols("aaab:N"),
+                SequenceAlignment.sortedSymbols("abab:N"),
+                SequenceAlignment.sortedSymbols("bbbb:N"),
+                SequenceAlignment.sortedSymbols("aaaaaa:N"),
+                SequenceAlignment.sortedSymbols("abcabc:N"),
+                SequenceAlignment.sortedSymbols("ccc:N")};
+        for (double keep : KEEPS)
+            check(symbols, symbols, keep, random);
+    }
+}
@@ -0,0 +1,64 @@
+package util;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class StripedCounterMapTest {
+
+    private static List<String> keys(int n, Random random) {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+            keys.add("key" + random.nextInt(n / 4));
+        return keys;
+    }
+
+    private static TObjectIntMap<String> count(List<String> keys) {
+        TObjectIntMap<String> counts = new TObjectIntHashMap<>();
+        for (int i = 0; i < keys.size(); i++)
+            counts.adjustOrPutValue(keys.get(i), i % 7, i % 7);
+        return counts;
+    }
+
+    @Test
+    public void addInParallel() {
+        List<String> keys = keys(100000, new Random(0));
+        for (int stripes : new int[] {1, 3, 64}) {
+            StripedCounterMap<String> map = new StripedCounterMap<>(stripes);
+            IntStream.range(0, keys.size()).parallel().forEach(i -> map.add(keys.get(i), i % 7));
+            TObjectIntMap<String> expected = count(keys);
+            assertEquals(expected, map.toMap());
+            assertEquals(expected.size(), map.size());
+            for (String key : expected.keySet())
+                assertEquals(expected.get(key), map.get(key));
+        }
+    }
+
+    @Test
+    public void addAllInParallel() {
+        List<String> keys = keys(100000, new Random(1));
+        StripedCounterMap<String> map = new StripedCounterMap<>();
+        // every task counts a slice of the keys on its own and merges it
+        IntStream.range(0, 100).parallel().forEach(slice -> {
+            TObjectIntMap<String> counts = new TObjectIntHashMap<>();
+            for (int i = slice; i < keys.size(); i += 100)
+                counts.adjustOrPutValue(keys.get(i), i % 7, i % 7);
+            map.addAll(counts);
+        });
+        map.addAll(new TObjectIntHashMap<>());
+        assertEquals(count(keys), map.toMap());
+        assertEquals(0, map.get("missing"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noStripes() {
+        new StripedCounterMap<String>(0);
+    }
+}